@@ -1,8 +1,11 @@
 package nz.ac.auckland.concert.client.service;
 
 import java.awt.Image;
+import java.time.LocalDateTime;
+import java.util.Iterator;
 import java.util.Set;
 
+import nz.ac.auckland.concert.common.dto.AvailabilityDTO;
 import nz.ac.auckland.concert.common.dto.BookingDTO;
 import nz.ac.auckland.concert.common.dto.ConcertDTO;
 import nz.ac.auckland.concert.common.dto.CreditCardDTO;
@@ -10,6 +13,7 @@ import nz.ac.auckland.concert.common.dto.NewsItemDTO;
 import nz.ac.auckland.concert.common.dto.PerformerDTO;
 import nz.ac.auckland.concert.common.dto.ReservationDTO;
 import nz.ac.auckland.concert.common.dto.ReservationRequestDTO;
+import nz.ac.auckland.concert.common.dto.SeatMapDTO;
 import nz.ac.auckland.concert.common.dto.UserDTO;
 
 
@@ -39,6 +43,21 @@ public interface ConcertService {
 	 */
 	Set<ConcertDTO> getConcerts() throws ServiceException;
 	
+	/**
+	 * Returns an Iterator over all concerts, in order of id, which retrieves
+	 * them from the remote service a page at a time as it is advanced. Unlike
+	 * getConcerts(), the catalog needn't fit in a single response.
+	 * 
+	 * @param pageSize the number of concerts to retrieve per request. The
+	 * service may use smaller pages.
+	 * 
+	 * @throws ServiceException (from the Iterator's methods) if there's an 
+	 * error communicating with the service. The exception's message is 
+	 * Messages.SERVICE_COMMUNICATION_ERROR.
+	 * 
+	 */
+	Iterator<ConcertDTO> iterateConcerts(int pageSize) throws ServiceException;
+	
 	/**
 	 * Returns a Set of PerformerDTO objects. Each member of the Set describes
 	 * a Performer.
@@ -126,6 +145,70 @@ public interface ConcertService {
 	 */
 	Image getImageForPerformer(PerformerDTO performer) throws ServiceException;
 
+	/**
+	 * Returns the number of seats still available in each price band for a 
+	 * concert on a given date. Seats are unavailable once they are reserved,
+	 * whether or not the reservation has been confirmed. Clients can use 
+	 * this to avoid making reservation requests that can't succeed.
+	 * 
+	 * @param concertId the identifier of the concert.
+	 * 
+	 * @param date the date/time of the concert.
+	 * 
+	 * @return an AvailabilityDTO describing the number of available seats in
+	 * each price band.
+	 * 
+	 * @throws ServiceException in response to any of the following conditions.
+	 * The exception's message is defined in 
+	 * class nz.ac.auckland.concert.common.Messages.
+	 * 
+	 * Condition: the concert is not scheduled on the specified date/time.
+	 * Messages.CONCERT_NOT_SCHEDULED_ON_AVAILABILITY_DATE
+	 * 
+	 * Condition: there is a communication error.
+	 * Messages.SERVICE_COMMUNICATION_ERROR
+	 * 
+	 */
+	AvailabilityDTO getAvailability(Long concertId, LocalDateTime date) throws ServiceException;
+
+	/**
+	 * Returns the seat map of a concert on a given date, describing which 
+	 * seats are reserved or booked.
+	 * 
+	 * @param concertId the identifier of the concert.
+	 * 
+	 * @param date the date/time of the concert.
+	 * 
+	 * @return a complete SeatMapDTO.
+	 * 
+	 * @throws ServiceException in response to any of the following conditions.
+	 * The exception's message is defined in 
+	 * class nz.ac.auckland.concert.common.Messages.
+	 * 
+	 * Condition: the concert is not scheduled on the specified date/time.
+	 * Messages.CONCERT_NOT_SCHEDULED_ON_SEAT_MAP_DATE
+	 * 
+	 * Condition: there is a communication error.
+	 * Messages.SERVICE_COMMUNICATION_ERROR
+	 * 
+	 */
+	SeatMapDTO getSeatMap(Long concertId, LocalDateTime date) throws ServiceException;
+	
+	/**
+	 * Brings a seat map previously returned by getSeatMap() up to date. Only
+	 * the seats that have changed since the map's version are fetched from 
+	 * the remote service, making this suitable for frequent polling.
+	 * 
+	 * @param seatMap a complete seat map.
+	 * 
+	 * @return the given seatMap if nothing has changed, otherwise a new 
+	 * complete SeatMapDTO.
+	 * 
+	 * @throws ServiceException for the same conditions as getSeatMap().
+	 * 
+	 */
+	SeatMapDTO refreshSeatMap(SeatMapDTO seatMap) throws ServiceException;
+
 	/**
 	 * Attempts to reserve seats for a concert. The reservation is valid for a
 	 * short period that is determine by the remote service.
@@ -244,6 +327,21 @@ public interface ConcertService {
 	 */
 	Set<BookingDTO> getBookings() throws ServiceException;
 	
+	/**
+	 * Returns an Iterator over the bookings of the currently authenticated 
+	 * user, in the order they were made, which retrieves them from the remote
+	 * service a page at a time as it is advanced.
+	 * 
+	 * @param pageSize the number of bookings to retrieve per request. The
+	 * service may use smaller pages.
+	 * 
+	 * @throws ServiceException under the same conditions as getBookings(). 
+	 * Messages.UNAUTHENTICATED_REQUEST is thrown by this method, the others
+	 * by the Iterator's methods.
+	 * 
+	 */
+	Iterator<BookingDTO> iterateBookings(int pageSize) throws ServiceException;
+	
 	/**
 	 * Subscribes for news items. Once subscribed, the supplied 
 	 * NewsItemListener will be notified of any news items. The listener is
@@ -3,9 +3,13 @@ package nz.ac.auckland.concert.client.service;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import javax.imageio.ImageIO;
@@ -17,9 +21,11 @@ import javax.ws.rs.client.Invocation.Builder;
 import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
 import org.slf4j.Logger;
@@ -35,6 +41,7 @@ import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 
+import nz.ac.auckland.concert.common.dto.AvailabilityDTO;
 import nz.ac.auckland.concert.common.dto.BookingDTO;
 import nz.ac.auckland.concert.common.dto.ConcertDTO;
 import nz.ac.auckland.concert.common.dto.CreditCardDTO;
@@ -42,6 +49,7 @@ import nz.ac.auckland.concert.common.dto.NewsItemDTO;
 import nz.ac.auckland.concert.common.dto.PerformerDTO;
 import nz.ac.auckland.concert.common.dto.ReservationDTO;
 import nz.ac.auckland.concert.common.dto.ReservationRequestDTO;
+import nz.ac.auckland.concert.common.dto.SeatMapDTO;
 import nz.ac.auckland.concert.common.dto.UserDTO;
 import nz.ac.auckland.concert.common.message.Messages;
 import nz.ac.auckland.concert.common.util.Config;
@@ -74,6 +82,14 @@ public class DefaultService implements ConcertService {
 	
 	private boolean subscribe;
 
+	// Last retrieved concerts and performers, with the entity tags the service
+	// sent them with. They are used when the service responds 304 (Not Modified).
+	private Set<ConcertDTO> concerts;
+	private EntityTag concertsTag;
+
+	private Set<PerformerDTO> performers;
+	private EntityTag performersTag;
+
 	public DefaultService() {		
 		// Initially unauthenticated
 		authenticationToken = null;
@@ -92,13 +108,23 @@ public class DefaultService implements ConcertService {
 		try {
 			// Make a get request for all concerts
 			Builder builder = client.target(WEB_SERVICE_URI).request().accept(MediaType.APPLICATION_XML);
+			if (concertsTag != null) {
+				builder.header(HttpHeaders.IF_NONE_MATCH, concertsTag);
+			}
 
 			response = builder.get();
 
 			handlePossibleServiceCommunicationError(response);
 			
-			concerts = response.readEntity(new GenericType<Set<ConcertDTO>>() {
-			});
+			if (response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+				// the concerts retrieved last time are still current
+				concerts = new HashSet<ConcertDTO>(this.concerts);
+			} else {
+				concerts = response.readEntity(new GenericType<Set<ConcertDTO>>() {
+				});
+				this.concerts = new HashSet<ConcertDTO>(concerts);
+				concertsTag = response.getEntityTag();
+			}
 
 		} catch(ProcessingException e){
 			handleServiceCommunicationError();
@@ -112,6 +138,13 @@ public class DefaultService implements ConcertService {
 		return concerts;
 	}
 
+	@Override
+	public Iterator<ConcertDTO> iterateConcerts(int pageSize) throws ServiceException {
+		return new PageIterator<ConcertDTO>(WEB_SERVICE_URI, pageSize, null,
+				new GenericType<List<ConcertDTO>>() {
+				});
+	}
+
 	@Override
 	public Set<PerformerDTO> getPerformers() throws ServiceException {
 		Client client = ClientBuilder.newClient();
@@ -122,13 +155,23 @@ public class DefaultService implements ConcertService {
 			// Make a get request for all performers
 			Builder builder = client.target(WEB_SERVICE_URI + "/performers").request()
 					.accept(MediaType.APPLICATION_XML);
+			if (performersTag != null) {
+				builder.header(HttpHeaders.IF_NONE_MATCH, performersTag);
+			}
 
 			response = builder.get();
 
 			handlePossibleServiceCommunicationError(response);
 			
-			performers = response.readEntity(new GenericType<Set<PerformerDTO>>() {
-			});
+			if (response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+				// the performers retrieved last time are still current
+				performers = new HashSet<PerformerDTO>(this.performers);
+			} else {
+				performers = response.readEntity(new GenericType<Set<PerformerDTO>>() {
+				});
+				this.performers = new HashSet<PerformerDTO>(performers);
+				performersTag = response.getEntityTag();
+			}
 
 		} catch(ProcessingException e){
 			handleServiceCommunicationError();
@@ -255,6 +298,57 @@ public class DefaultService implements ConcertService {
 		return downloadedImage;
 	}
 
+	@Override
+	public AvailabilityDTO getAvailability(Long concertId, LocalDateTime date) throws ServiceException {
+		Client client = ClientBuilder.newClient();
+		Response response = null;
+		AvailabilityDTO availability = null;
+
+		try {
+			// Make a get request for the seats left at the concert on that date
+			Builder builder = client.target(WEB_SERVICE_URI + "/{id}/availability")
+					.resolveTemplate("id", concertId).queryParam("date", date).request()
+					.accept(MediaType.APPLICATION_XML);
+
+			response = builder.get();
+
+			handlePossibleServiceCommunicationError(response);
+			
+			int responseCode = response.getStatus();
+
+			switch (responseCode) {
+			case 400: // BAD REQUEST
+				processErrorMessage(response);
+			case 200: // OK
+				availability = response.readEntity(AvailabilityDTO.class);
+			}
+
+		} catch(ProcessingException e){
+			handleServiceCommunicationError();
+		} finally {			// Close the Response object.
+			response.close();
+			client.close();
+		}
+
+		return availability;
+	}
+
+	@Override
+	public SeatMapDTO getSeatMap(Long concertId, LocalDateTime date) throws ServiceException {
+		return requestSeatMap(concertId, date, null);
+	}
+
+	@Override
+	public SeatMapDTO refreshSeatMap(SeatMapDTO seatMap) throws ServiceException {
+		SeatMapDTO changes = requestSeatMap(seatMap.getConcertId(), seatMap.getDate(), seatMap.getVersion());
+		
+		// nothing has changed since the seat map's version
+		if(changes == null) {
+			return seatMap;
+		}
+		return seatMap.update(changes);
+	}
+
 	@Override
 	public ReservationDTO reserveSeats(ReservationRequestDTO reservationRequest) throws ServiceException {
 		Client client = ClientBuilder.newClient();
@@ -398,6 +492,15 @@ public class DefaultService implements ConcertService {
 		return bookings;
 	}
 	
+	@Override
+	public Iterator<BookingDTO> iterateBookings(int pageSize) throws ServiceException {
+		handlePossibleUnauthenticatedRequest();
+
+		return new PageIterator<BookingDTO>(WEB_SERVICE_URI + "/bookings", pageSize, authenticationToken,
+				new GenericType<List<BookingDTO>>() {
+				});
+	}
+	
 	@Override
 	public void subscribeForNewsItems(NewsItemListener listener) {
 		Client client = ClientBuilder.newClient();
@@ -482,6 +585,46 @@ public class DefaultService implements ConcertService {
 		}
 	}
 
+	/**
+	 * Gets the seat map of a concert on a date, or only its changes since a
+	 * version if one is given. Returns null if there are no changes.
+	 */
+	private SeatMapDTO requestSeatMap(Long concertId, LocalDateTime date, Long since) {
+		Client client = ClientBuilder.newClient();
+		Response response = null;
+		SeatMapDTO seatMap = null;
+
+		try {
+			WebTarget target = client.target(WEB_SERVICE_URI + "/{id}/seatmap")
+					.resolveTemplate("id", concertId).queryParam("date", date);
+			if(since != null) {
+				target = target.queryParam("since", since);
+			}
+			Builder builder = target.request().accept(MediaType.APPLICATION_XML);
+
+			response = builder.get();
+
+			handlePossibleServiceCommunicationError(response);
+			
+			int responseCode = response.getStatus();
+
+			switch (responseCode) {
+			case 400: // BAD REQUEST
+				processErrorMessage(response);
+			case 200: // OK
+				seatMap = response.readEntity(SeatMapDTO.class);
+			}
+
+		} catch(ProcessingException e){
+			handleServiceCommunicationError();
+		} finally {			// Close the Response object.
+			response.close();
+			client.close();
+		}
+
+		return seatMap;
+	}
+
 	/**
 	 * Finds image names stored in a bucket named AWS_BUCKET.
 	 */
@@ -522,6 +665,84 @@ public class DefaultService implements ConcertService {
 		}
 	}
 
+	/**
+	 * Iterator over a paged listing of the service. Each page is requested 
+	 * when the previous one has been consumed, after the cursor the service 
+	 * returned with it, until a page comes without one.
+	 */
+	private class PageIterator<T> implements Iterator<T> {
+		private final String uri;
+		private final int pageSize;
+		private final Cookie token;
+		private final GenericType<List<T>> pageType;
+
+		private Iterator<T> page;
+		private String cursor;
+		private boolean lastPage;
+
+		PageIterator(String uri, int pageSize, Cookie token, GenericType<List<T>> pageType) {
+			this.uri = uri;
+			this.pageSize = pageSize;
+			this.token = token;
+			this.pageType = pageType;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while ((page == null || !page.hasNext()) && !lastPage) {
+				page = retrievePage().iterator();
+			}
+			return page.hasNext();
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return page.next();
+		}
+
+		private List<T> retrievePage() {
+			Client client = ClientBuilder.newClient();
+			Response response = null;
+			List<T> items = null;
+
+			try {
+				WebTarget target = client.target(uri).queryParam("limit", pageSize);
+				if (cursor != null) {
+					target = target.queryParam("after", cursor);
+				}
+				Builder builder = target.request().accept(MediaType.APPLICATION_XML);
+				if (token != null) {
+					builder.cookie(token);
+				}
+
+				response = builder.get();
+
+				handlePossibleServiceCommunicationError(response);
+
+				if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+					processErrorMessage(response);
+				}
+				items = response.readEntity(pageType);
+				cursor = response.getHeaderString(Config.NEXT_CURSOR_HEADER);
+				lastPage = cursor == null;
+
+			} catch(ProcessingException e){
+				handleServiceCommunicationError();
+			} finally {
+				// Close the Response object.
+				if (response != null) {
+					response.close();
+				}
+				client.close();
+			}
+
+			return items;
+		}
+	}
+
 	/**
 	 * Throw an appropriate ServiceException based on the response
 	 */
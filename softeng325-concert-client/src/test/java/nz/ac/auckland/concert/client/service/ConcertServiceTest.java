@@ -3,14 +3,29 @@ package nz.ac.auckland.concert.client.service;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
+import javax.persistence.EntityManager;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
 
+import nz.ac.auckland.concert.common.dto.AvailabilityDTO;
 import nz.ac.auckland.concert.common.dto.BookingDTO;
 import nz.ac.auckland.concert.common.dto.ConcertDTO;
 import nz.ac.auckland.concert.common.dto.CreditCardDTO;
@@ -18,14 +33,34 @@ import nz.ac.auckland.concert.common.dto.PerformerDTO;
 import nz.ac.auckland.concert.common.dto.ReservationDTO;
 import nz.ac.auckland.concert.common.dto.ReservationRequestDTO;
 import nz.ac.auckland.concert.common.dto.SeatDTO;
+import nz.ac.auckland.concert.common.dto.SeatMapDTO;
 import nz.ac.auckland.concert.common.dto.UserDTO;
 import nz.ac.auckland.concert.common.message.Messages;
+import nz.ac.auckland.concert.common.types.AllocationStrategy;
 import nz.ac.auckland.concert.common.types.PriceBand;
 import nz.ac.auckland.concert.common.types.SeatRow;
+import nz.ac.auckland.concert.common.util.Config;
 import nz.ac.auckland.concert.common.util.TheatreLayout;
+import nz.ac.auckland.concert.service.domain.Booking;
+import nz.ac.auckland.concert.service.domain.Concert;
+import nz.ac.auckland.concert.service.domain.Performer;
+import nz.ac.auckland.concert.service.domain.Seat;
+import nz.ac.auckland.concert.service.domain.User;
+import nz.ac.auckland.concert.service.domain.jpa.SeatSetConverter;
+import nz.ac.auckland.concert.service.inventory.ReservationJournal;
+import nz.ac.auckland.concert.service.inventory.SeatInventory;
+import nz.ac.auckland.concert.service.reservation.ReservationEngine;
+import nz.ac.auckland.concert.service.services.CatalogSnapshot;
+import nz.ac.auckland.concert.service.services.CollectionStream;
 import nz.ac.auckland.concert.service.services.ConcertApplication;
+import nz.ac.auckland.concert.service.services.DomainMapper;
+import nz.ac.auckland.concert.service.services.PersistenceManager;
+import nz.ac.auckland.concert.service.services.StorageProfile;
+import nz.ac.auckland.concert.service.util.SeatCatalog;
 
 import org.eclipse.jetty.server.Server;
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.jboss.resteasy.plugins.server.servlet.HttpServletDispatcher;
@@ -68,6 +103,9 @@ public class ConcertServiceTest {
 
 	@BeforeClass
 	public static void createClientAndServer() throws Exception {
+		// Each test starts from an empty database, whatever the storage profile.
+		System.setProperty(ConcertApplication.RESET_PROPERTY, "true");
+		
 		// Use ClientBuilder to create a new client that can be used to create
 		// connections to the Web service.
 		_client = ClientBuilder.newClient();
@@ -98,6 +136,34 @@ public class ConcertServiceTest {
 		_server.stop();
 	}
 	
+	/**
+	 * Reads one of the values reported by the Web service's statistics
+	 * resource.
+	 */
+	private static long retrieveStatistic(String name) {
+		String statistics = _client.target("http://localhost:" + SERVER_PORT + "/services/concerts/statistics")
+				.request().get(String.class);
+		for(String line : statistics.split("\n")) {
+			String[] pair = line.split(" ");
+			if(pair[0].equals(name)) {
+				return Long.parseLong(pair[1]);
+			}
+		}
+		throw new AssertionError("No statistic " + name);
+	}
+	
+	/**
+	 * Returns the H2 query plan of an SQL query.
+	 */
+	private static String explain(String sql) {
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		try {
+			return em.createNativeQuery("explain " + sql).getSingleResult().toString();
+		} finally {
+			em.close();
+		}
+	}
+	
 	@Test
 	public void testRetrieveConcerts() {
 		final int numberOfConcerts = 25;
@@ -237,6 +303,107 @@ public class ConcertServiceTest {
 		}
 	}
 	
+	@Test
+	public void testMakeReservationWithBestFitAllocation() {
+		try {
+			final int numberOfSeatsToBook = 4;
+
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			ReservationRequestDTO request = new ReservationRequestDTO(numberOfSeatsToBook, PriceBand.PriceBandA, 1L, dateTime, AllocationStrategy.BestFit);
+
+			ReservationDTO reservation = _service.reserveSeats(request);
+			assertEquals(request, reservation.getReservationRequest());
+
+			Set<SeatDTO> reservedSeats = reservation.getSeats();
+			assertEquals(numberOfSeatsToBook, reservedSeats.size());
+
+			// Check that the seats are adjacent seats in a single row.
+			SeatRow row = reservedSeats.iterator().next().getRow();
+			int lowest = Integer.MAX_VALUE;
+			int highest = Integer.MIN_VALUE;
+			for(SeatDTO seat : reservedSeats) {
+				assertEquals(row, seat.getRow());
+				lowest = Math.min(lowest, seat.getNumber().intValue());
+				highest = Math.max(highest, seat.getNumber().intValue());
+			}
+			assertEquals(numberOfSeatsToBook - 1, highest - lowest);
+		} catch(ServiceException e) {
+			fail();
+		}
+	}
+
+	@Test
+	public void testRetrieveAvailability() {
+		try {
+			final int numberOfSeatsToBook = 3;
+			
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			
+			int totalNumberOfSeats = 0;
+			for(SeatRow row : TheatreLayout.getRowsForPriceBand(PriceBand.PriceBandC)) {
+				totalNumberOfSeats += TheatreLayout.getNumberOfSeatsForRow(row);
+			}
+			
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			AvailabilityDTO availability = _service.getAvailability(1L, dateTime);
+			assertEquals(totalNumberOfSeats, availability.getNumberOfAvailableSeats(PriceBand.PriceBandC));
+			
+			ReservationRequestDTO request = new ReservationRequestDTO(numberOfSeatsToBook, PriceBand.PriceBandC, 1L, dateTime);
+			_service.reserveSeats(request);
+			
+			// Reserved seats are no longer available, other bands are unaffected.
+			AvailabilityDTO availabilityAfterReservation = _service.getAvailability(1L, dateTime);
+			assertEquals(totalNumberOfSeats - numberOfSeatsToBook, availabilityAfterReservation.getNumberOfAvailableSeats(PriceBand.PriceBandC));
+			assertEquals(availability.getNumberOfAvailableSeats(PriceBand.PriceBandA), availabilityAfterReservation.getNumberOfAvailableSeats(PriceBand.PriceBandA));
+		} catch(ServiceException e) {
+			fail();
+		}
+	}
+	
+	@Test
+	public void testRetrieveAvailabilityWithBadRequest() {
+		try {
+			LocalDateTime dateTime = LocalDateTime.of(2018, 2, 24, 17, 00);
+			_service.getAvailability(1L, dateTime);
+			fail();
+		} catch(ServiceException e) {
+			assertEquals(Messages.CONCERT_NOT_SCHEDULED_ON_AVAILABILITY_DATE, e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRetrieveSeatMap() {
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			SeatMapDTO seatMap = _service.getSeatMap(1L, dateTime);
+			assertEquals(0, seatMap.getOccupied().cardinality());
+			
+			// Polling without any changes returns the same seat map.
+			assertTrue(seatMap == _service.refreshSeatMap(seatMap));
+			
+			ReservationRequestDTO request = new ReservationRequestDTO(4, PriceBand.PriceBandA, 1L, dateTime);
+			ReservationDTO reservation = _service.reserveSeats(request);
+			
+			// Polling picks up exactly the reserved seats.
+			SeatMapDTO refreshedSeatMap = _service.refreshSeatMap(seatMap);
+			assertTrue(refreshedSeatMap.getVersion() > seatMap.getVersion());
+			assertEquals(reservation.getSeats().size(), refreshedSeatMap.getOccupied().cardinality());
+			for(SeatDTO seat : reservation.getSeats()) {
+				assertTrue(refreshedSeatMap.isOccupied(seat));
+			}
+			assertEquals(_service.getSeatMap(1L, dateTime).getOccupied(), refreshedSeatMap.getOccupied());
+		} catch(ServiceException e) {
+			fail();
+		}
+	}
+
 	@Test
 	public void testMakeReservationWithBadRequest() {
 		try {
@@ -337,6 +504,604 @@ public class ConcertServiceTest {
 		}
 	}	
 	
+	@Test
+	public void testRetrieveBookingsWithoutLoadingEntities() {
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			CreditCardDTO creditCard = new CreditCardDTO(CreditCardDTO.Type.Visa, "Winston Churchill", "4929-1500-0055-9544", LocalDate.of(2019, 7, 31));
+			_service.registerCreditCard(creditCard);
+			
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			_service.confirmReservation(_service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, dateTime)));
+			
+			long entities = retrieveStatistic("entities.loaded");
+			assertEquals(1, _service.getBookings().size());
+			long loadedForOne = retrieveStatistic("entities.loaded") - entities;
+			
+			// Bookings are selected as rows, so more of them load no more entities.
+			for(int i = 0; i < 3; i++) {
+				_service.confirmReservation(_service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, dateTime)));
+			}
+			entities = retrieveStatistic("entities.loaded");
+			Set<BookingDTO> bookings = _service.getBookings();
+			assertEquals(loadedForOne, retrieveStatistic("entities.loaded") - entities);
+			assertEquals(4, bookings.size());
+			for(BookingDTO booking : bookings) {
+				assertEquals("Death of a Bachelor Tour", booking.getConcertTitle());
+				assertEquals(2, booking.getSeats().size());
+			}
+		} catch(ServiceException e) {
+			fail();
+		}
+	}
+	
+	@Test
+	public void testStreamBookings() throws Exception {
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			CreditCardDTO creditCard = new CreditCardDTO(CreditCardDTO.Type.Visa, "Winston Churchill", "4929-1500-0055-9544", LocalDate.of(2019, 7, 31));
+			_service.registerCreditCard(creditCard);
+			
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			for(int i = 0; i < 3; i++) {
+				_service.confirmReservation(_service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, dateTime)));
+			}
+			Set<BookingDTO> bookings = _service.getBookings();
+			assertEquals(3, bookings.size());
+		} catch(ServiceException e) {
+			fail();
+		}
+		
+		// The Web service runs in this JVM, so its stream can be written here.
+		// It writes an ordinary collection, using an EntityManager of its own.
+		long open = retrieveStatistic("entitymanagers.open");
+		CollectionStream<BookingDTO> stream = new CollectionStream<BookingDTO>(BookingDTO.class,
+				em -> em.createQuery(DomainMapper.BOOKING_PROJECTION + "where b._user._username = 'Bulldog'", Object[].class),
+				DomainMapper::bookingRowToDTO);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		stream.write(output);
+		assertEquals(open, retrieveStatistic("entitymanagers.open"));
+		
+		String xml = output.toString("UTF-8");
+		assertTrue(xml, xml.startsWith("<?xml"));
+		assertTrue(xml, xml.contains("<collection><bookingDTO>"));
+		assertEquals(3, xml.split("<bookingDTO>", -1).length - 1);
+	}
+	
+	@Test
+	public void testAuthenticateFromTokenCache() {
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			
+			// The new token is looked up in the database on first use only.
+			long misses = retrieveStatistic("tokens.cache.misses");
+			long hits = retrieveStatistic("tokens.cache.hits");
+			assertEquals(0, _service.getBookings().size());
+			assertEquals(misses + 1, retrieveStatistic("tokens.cache.misses"));
+			
+			long statements = retrieveStatistic("statements.prepared");
+			assertEquals(0, _service.getBookings().size());
+			assertEquals(hits + 1, retrieveStatistic("tokens.cache.hits"));
+			// only the bookings are queried
+			assertEquals(statements + 1, retrieveStatistic("statements.prepared"));
+		} catch(ServiceException e) {
+			fail();
+		}
+	}
+	
+	@Test
+	public void testConfirmReservationWithSeatHolds() {
+		// The Web service runs in this JVM, so the system property selects its mode.
+		System.setProperty(ReservationEngine.SEAT_HOLDS_PROPERTY, "true");
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			CreditCardDTO creditCard = new CreditCardDTO(CreditCardDTO.Type.Visa, "Winston Churchill", "4929-1500-0055-9544", LocalDate.of(2019, 7, 31));
+			_service.registerCreditCard(creditCard);
+			
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			ReservationDTO firstReservation = _service.reserveSeats(new ReservationRequestDTO(6, PriceBand.PriceBandB, 1L, dateTime));
+			ReservationDTO secondReservation = _service.reserveSeats(new ReservationRequestDTO(6, PriceBand.PriceBandB, 1L, dateTime));
+			_service.confirmReservation(firstReservation);
+			_service.confirmReservation(secondReservation);
+			
+			// Check that both bookings were made, without sharing any seats.
+			Set<BookingDTO> bookings = _service.getBookings();
+			assertEquals(2, bookings.size());
+			for(SeatDTO seat : firstReservation.getSeats()) {
+				assertTrue(!secondReservation.getSeats().contains(seat));
+			}
+		} catch(ServiceException e) {
+			fail();
+		} finally {
+			System.clearProperty(ReservationEngine.SEAT_HOLDS_PROPERTY);
+		}
+	}
+	
+	@Test
+	public void testReserveSeatsHeldByAnotherNode() {
+		// The Web service runs in this JVM, so the system property selects its mode.
+		System.setProperty(ReservationEngine.SEAT_HOLDS_PROPERTY, "true");
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			CreditCardDTO creditCard = new CreditCardDTO(CreditCardDTO.Type.Visa, "Winston Churchill", "4929-1500-0055-9544", LocalDate.of(2019, 7, 31));
+			_service.registerCreditCard(creditCard);
+			
+			// Load the performance's seat inventory.
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			int available = _service.getAvailability(1L, dateTime).getNumberOfAvailableSeats(PriceBand.PriceBandA);
+			
+			// Another node sharing the database holds all but the last two seats of 
+			// the price band for a few seconds, without this node knowing.
+			List<Integer> ordinals = new ArrayList<Integer>();
+			for(int ordinal = 0; ordinal < TheatreLayout.getNumberOfSeats(); ordinal++) {
+				if(TheatreLayout.getPriceBandForRow(TheatreLayout.getSeat(ordinal).getRow()) == PriceBand.PriceBandA) {
+					ordinals.add(ordinal);
+				}
+			}
+			Set<Seat> heldSeats = new HashSet<Seat>();
+			Set<SeatDTO> freeSeats = new HashSet<SeatDTO>();
+			for(int i = 0; i < ordinals.size(); i++) {
+				if(i < ordinals.size() - 2) {
+					heldSeats.add(SeatCatalog.getSeat(ordinals.get(i)));
+				} else {
+					freeSeats.add(TheatreLayout.getSeat(ordinals.get(i)));
+				}
+			}
+			EntityManager em = PersistenceManager.instance().createEntityManager();
+			try {
+				em.getTransaction().begin();
+				Booking booking = new Booking(em.find(Concert.class, 1L), dateTime, heldSeats, PriceBand.PriceBandA,
+						em.find(User.class, "Bulldog"), LocalDateTime.now().plusSeconds(3));
+				booking.holdSeats();
+				em.persist(booking);
+				em.getTransaction().commit();
+			} finally {
+				em.close();
+			}
+			
+			// The SeatHolds reject the seats this node picks first, and the
+			// reservation is retried with the inventory reloaded.
+			ReservationDTO reservation = _service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, dateTime));
+			assertEquals(freeSeats, reservation.getSeats());
+			_service.confirmReservation(reservation);
+			assertEquals(0, _service.getAvailability(1L, dateTime).getNumberOfAvailableSeats(PriceBand.PriceBandA));
+			
+			// The other node's seats are free again once its reservation expires.
+			Thread.sleep(4000);
+			assertEquals(available - 2, _service.getAvailability(1L, dateTime).getNumberOfAvailableSeats(PriceBand.PriceBandA));
+		} catch(ServiceException | InterruptedException e) {
+			fail();
+		} finally {
+			System.clearProperty(ReservationEngine.SEAT_HOLDS_PROPERTY);
+		}
+	}
+
+	@Test
+	public void testExpiredReservationStatistics() {
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			_service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, dateTime));
+			
+			long expired = retrieveStatistic("reservations.expired");
+			assertEquals(1, retrieveStatistic("reservations.pending"));
+			
+			// Wait for the reservation to expire. 
+			Thread.sleep(ConcertApplication.RESERVATION_EXPIRY_TIME_IN_SECONDS * 1000 + 500);
+			
+			assertEquals(0, retrieveStatistic("reservations.pending"));
+			assertEquals(expired + 1, retrieveStatistic("reservations.expired"));
+		} catch(ServiceException e) {
+			fail();
+		} catch(InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testEntityManagersClosedAfterFailedRequests() {
+		try {
+			_service.createUser(new UserDTO("Bulldog", "123", "Churchill", "Winston"));
+
+			// Make requests that fail after their EntityManagers are acquired.
+			try {
+				_service.createUser(new UserDTO("Bulldog", "123", "Churchill", "Winston"));
+				fail();
+			} catch(ServiceException e) {
+				assertEquals(Messages.CREATE_USER_WITH_NON_UNIQUE_NAME, e.getMessage());
+			}
+			try {
+				_service.authenticateUser(new UserDTO("Bulldog", "wrong"));
+				fail();
+			} catch(ServiceException e) {
+				assertEquals(Messages.AUTHENTICATE_USER_WITH_ILLEGAL_PASSWORD, e.getMessage());
+			}
+			try {
+				_service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, LocalDateTime.of(2001, 1, 1, 1, 0)));
+				fail();
+			} catch(ServiceException e) {
+				assertEquals(Messages.CONCERT_NOT_SCHEDULED_ON_RESERVATION_DATE, e.getMessage());
+			}
+			_service.getBookings();
+
+			assertEquals(0, retrieveStatistic("entitymanagers.open"));
+		} catch(ServiceException e) {
+			fail();
+		}
+	}
+
+	@Test
+	public void testRetrieveCatalogFromCache() {
+		_service.getConcerts();
+		_service.getPerformers();
+		long queryHits = retrieveStatistic("cache.queries.hits");
+		long entityHits = retrieveStatistic("cache.entities.hits");
+
+		// Discard the serialised catalog, so that it is built again from the
+		// cached query results.
+		CatalogSnapshot.instance().invalidate();
+
+		assertEquals(25, _service.getConcerts().size());
+		assertEquals(20, _service.getPerformers().size());
+
+		assertEquals(queryHits + 2, retrieveStatistic("cache.queries.hits"));
+		assertTrue(retrieveStatistic("cache.entities.hits") > entityHits);
+	}
+
+	@Test
+	public void testRetrieveCatalogWithFixedNumberOfQueries() {
+		// Empty the second-level and query caches, so that the catalog is read
+		// from the database.
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		em.getEntityManagerFactory().unwrap(SessionFactory.class).getCache().evictAllRegions();
+		em.close();
+
+		long statements = retrieveStatistic("statements.prepared");
+		assertEquals(25, _service.getConcerts().size());
+		assertEquals(statements + 1, retrieveStatistic("statements.prepared"));
+
+		statements = retrieveStatistic("statements.prepared");
+		assertEquals(20, _service.getPerformers().size());
+		assertEquals(statements + 1, retrieveStatistic("statements.prepared"));
+	}
+
+	@Test
+	public void testRetrieveUnmodifiedCatalog() {
+		String uri = "http://localhost:" + SERVER_PORT + "/services/concerts";
+		
+		Response response = _client.target(uri).request().get();
+		EntityTag tag = response.getEntityTag();
+		response.close();
+		assertEquals(200, response.getStatus());
+		assertTrue(tag != null);
+		
+		// The catalog hasn't changed, so it isn't sent again.
+		response = _client.target(uri).request().header(HttpHeaders.IF_NONE_MATCH, tag).get();
+		response.close();
+		assertEquals(304, response.getStatus());
+		
+		// The client reuses the concerts it has already retrieved, and the
+		// service serves them without querying the database.
+		assertEquals(25, _service.getConcerts().size());
+		long statements = retrieveStatistic("statements.prepared");
+		assertEquals(25, _service.getConcerts().size());
+		assertEquals(20, _service.getPerformers().size());
+		assertEquals(20, _service.getPerformers().size());
+		assertEquals(statements + 1, retrieveStatistic("statements.prepared"));
+	}
+
+	@Test
+	public void testRetrieveConcertsInPages() {
+		Set<Long> ids = new HashSet<Long>();
+		long previous = Long.MIN_VALUE;
+		Iterator<ConcertDTO> concerts = _service.iterateConcerts(10);
+		while(concerts.hasNext()) {
+			ConcertDTO concert = concerts.next();
+			assertTrue(concert.getId() > previous);
+			previous = concert.getId();
+			ids.add(concert.getId());
+		}
+		assertEquals(25, ids.size());
+		
+		// The last, partial page has no cursor.
+		String uri = "http://localhost:" + SERVER_PORT + "/services/concerts";
+		Response response = _client.target(uri).queryParam("limit", 10).queryParam("after", previous - 1).request().get();
+		response.close();
+		assertEquals(200, response.getStatus());
+		assertEquals(null, response.getHeaderString(Config.NEXT_CURSOR_HEADER));
+		
+		response = _client.target(uri).queryParam("limit", 0).request().get();
+		assertEquals(400, response.getStatus());
+		assertEquals(Messages.INVALID_PAGE_LIMIT, response.readEntity(String.class));
+		response.close();
+	}
+
+	@Test
+	public void testRetrieveBookingsInPages() {
+		String token = null;
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			CreditCardDTO creditCard = new CreditCardDTO(CreditCardDTO.Type.Visa, "Winston Churchill", "4929-1500-0055-9544", LocalDate.of(2019, 7, 31));
+			_service.registerCreditCard(creditCard);
+
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			for(int i = 0; i < 2; i++) {
+				_service.confirmReservation(_service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, dateTime)));
+			}
+
+			// An expired reservation between the bookings, which hasn't been swept yet.
+			Set<Seat> seats = new HashSet<Seat>();
+			for(int ordinal = 0; seats.size() < 2; ordinal++) {
+				if(TheatreLayout.getPriceBandForRow(TheatreLayout.getSeat(ordinal).getRow()) == PriceBand.PriceBandC) {
+					seats.add(SeatCatalog.getSeat(ordinal));
+				}
+			}
+			EntityManager em = PersistenceManager.instance().createEntityManager();
+			try {
+				em.getTransaction().begin();
+				em.persist(new Booking(em.find(Concert.class, 1L), dateTime, seats, PriceBand.PriceBandC,
+						em.find(User.class, "Bulldog"), LocalDateTime.now().minusMinutes(1)));
+				em.getTransaction().commit();
+				token = em.createQuery("select t._value from AuthenticationToken t where t._user._username = 'Bulldog'", String.class)
+						.setMaxResults(1).getSingleResult();
+			} finally {
+				em.close();
+			}
+
+			for(int i = 0; i < 3; i++) {
+				_service.confirmReservation(_service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, dateTime)));
+			}
+
+			// The iterator follows the cursor through all the bookings, and only
+			// those.
+			int count = 0;
+			Iterator<BookingDTO> bookings = _service.iterateBookings(2);
+			while(bookings.hasNext()) {
+				assertEquals(PriceBand.PriceBandA, bookings.next().getPriceBand());
+				count++;
+			}
+			assertEquals(5, count);
+		} catch(ServiceException e) {
+			fail();
+		}
+
+		// Pages of 2, 2 and 1 bookings, where the last, partial page has no cursor.
+		List<Integer> pages = new ArrayList<Integer>();
+		String cursor = null;
+		do {
+			WebTarget target = _client.target("http://localhost:" + SERVER_PORT + "/services/concerts/bookings").queryParam("limit", 2);
+			if(cursor != null) {
+				target = target.queryParam("after", cursor);
+			}
+			Response response = target.request().cookie(Config.CLIENT_COOKIE, token).get();
+			assertEquals(200, response.getStatus());
+			pages.add(response.readEntity(new GenericType<List<BookingDTO>>() {}).size());
+			cursor = response.getHeaderString(Config.NEXT_CURSOR_HEADER);
+			response.close();
+		} while(cursor != null && pages.size() < 4);
+		assertEquals(Arrays.asList(2, 2, 1), pages);
+	}
+
+	@Test
+	public void testConvertSeatSets() {
+		SeatSetConverter converter = new SeatSetConverter();
+		int last = TheatreLayout.getNumberOfSeats() - 1;
+
+		Set<Seat> venue = new HashSet<Seat>();
+		for(int ordinal = 0; ordinal <= last; ordinal++) {
+			venue.add(SeatCatalog.getSeat(ordinal));
+		}
+		List<Set<Seat>> sets = new ArrayList<Set<Seat>>();
+		sets.add(new HashSet<Seat>());
+		sets.add(new HashSet<Seat>(Arrays.asList(SeatCatalog.getSeat(0))));
+		sets.add(new HashSet<Seat>(Arrays.asList(SeatCatalog.getSeat(last))));
+		sets.add(new HashSet<Seat>(Arrays.asList(SeatCatalog.getSeat(0), SeatCatalog.getSeat(last))));
+		sets.add(venue);
+
+		for(Set<Seat> seats : sets) {
+			Set<Seat> converted = converter.convertToEntityAttribute(converter.convertToDatabaseColumn(seats));
+			assertEquals(seats, converted);
+			// the seats are the catalog's own instances
+			for(Seat seat : converted) {
+				assertTrue(seat == SeatCatalog.getSeat(SeatCatalog.getOrdinal(seat)));
+			}
+		}
+
+		// one bit for each seat at the venue
+		assertEquals(0, converter.convertToDatabaseColumn(new HashSet<Seat>()).length);
+		assertEquals(last / 8 + 1, converter.convertToDatabaseColumn(venue).length);
+		assertEquals(null, converter.convertToDatabaseColumn(null));
+		assertEquals(null, converter.convertToEntityAttribute(null));
+	}
+
+	@Test
+	public void testHotQueriesUseIndexes() {
+		// A performance's bookings, of one price band.
+		String plan = explain("select * from BOOKING where CONCERT_ID = 1 "
+				+ "and _DATETIME = timestamp '2017-02-24 17:00:00' and _PRICEBAND = 'PriceBandA'");
+		assertTrue(plan, plan.contains("BOOKING_PERFORMANCE"));
+		
+		// A performance's bookings, of any price band.
+		plan = explain("select * from BOOKING where CONCERT_ID = 1 "
+				+ "and _DATETIME = timestamp '2017-02-24 17:00:00'");
+		assertTrue(plan, plan.contains("BOOKING_PERFORMANCE"));
+		
+		// A user's bookings.
+		plan = explain("select * from BOOKING where USER_ID = 'Bulldog' "
+				+ "and (_CONFIRMED = true or EXPIRES_AT > current_timestamp)");
+		assertTrue(plan, plan.contains("BOOKING_USER"));
+		
+		// A user's authentication token.
+		plan = explain("select * from AUTHENTICATIONTOKEN where _USER__USERNAME = 'Bulldog'");
+		assertTrue(plan, plan.contains("AUTHENTICATION_TOKEN_USER"));
+	}
+
+	@Test
+	public void testReserveSeatsInBatches() {
+		try {
+			final int numberOfSeatsToBook = 10;
+			
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			ReservationRequestDTO request = new ReservationRequestDTO(numberOfSeatsToBook, PriceBand.PriceBandA, 1L, dateTime);
+			_service.reserveSeats(request);
+			
+			// The booking, with its seats, is inserted with an id from the 
+			// booking sequence's pool: one statement finds the user and one 
+			// inserts the booking.
+			long statements = retrieveStatistic("statements.prepared");
+			ReservationDTO reservation = _service.reserveSeats(request);
+			assertEquals(numberOfSeatsToBook, reservation.getSeats().size());
+			assertEquals(statements + 2, retrieveStatistic("statements.prepared"));
+			
+			// In seat hold mode, the rows holding the seats are inserted in 
+			// one batch, with a single statement however many seats there are.
+			System.setProperty(ReservationEngine.SEAT_HOLDS_PROPERTY, "true");
+			statements = retrieveStatistic("statements.prepared");
+			reservation = _service.reserveSeats(request);
+			assertEquals(numberOfSeatsToBook, reservation.getSeats().size());
+			assertEquals(statements + 3, retrieveStatistic("statements.prepared"));
+		} catch(ServiceException e) {
+			fail();
+		} finally {
+			System.clearProperty(ReservationEngine.SEAT_HOLDS_PROPERTY);
+		}
+	}
+
+	@Test
+	public void testRecoverSeatInventoryFromJournal() {
+		// Only a durable database is journalled (run with -Dconcert.db.profile=mvstore).
+		assumeTrue(ReservationJournal.isKept(StorageProfile.selected()));
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			CreditCardDTO creditCard = new CreditCardDTO(CreditCardDTO.Type.Visa, "Winston Churchill", "4929-1500-0055-9544", LocalDate.of(2019, 7, 31));
+			_service.registerCreditCard(creditCard);
+			
+			// Book some seats, and reserve others.
+			LocalDateTime dateTime = LocalDateTime.of(2017, 2, 24, 17, 00);
+			ReservationDTO reservation = _service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, dateTime));
+			_service.confirmReservation(reservation);
+			_service.reserveSeats(new ReservationRequestDTO(3, PriceBand.PriceBandB, 1L, dateTime));
+			AvailabilityDTO availability = _service.getAvailability(1L, dateTime);
+			
+			// Reservations and confirmations are durable when they're made.
+			assertTrue(retrieveStatistic("journal.forces") <= retrieveStatistic("journal.commits"));
+			
+			// The inventory is rebuilt from the journal rather than the database.
+			SeatInventory.instance().recover();
+			long statements = retrieveStatistic("statements.prepared");
+			AvailabilityDTO recovered = _service.getAvailability(1L, dateTime);
+			assertEquals(statements, retrieveStatistic("statements.prepared"));
+			for(PriceBand priceBand : PriceBand.values()) {
+				assertEquals(availability.getNumberOfAvailableSeats(priceBand), recovered.getNumberOfAvailableSeats(priceBand));
+			}
+		} catch(ServiceException e) {
+			fail();
+		}
+	}
+
+	@Test
+	public void testNoJournalWithoutDurableStorage() {
+		assumeFalse(ReservationJournal.isKept(StorageProfile.selected()));
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			CreditCardDTO creditCard = new CreditCardDTO(CreditCardDTO.Type.Visa, "Winston Churchill", "4929-1500-0055-9544", LocalDate.of(2019, 7, 31));
+			_service.registerCreditCard(creditCard);
+			
+			// The inventory of a database recreated at start-up has nothing to
+			// recover, so reservations and confirmations are neither recorded nor forced.
+			long records = retrieveStatistic("journal.records");
+			long forces = retrieveStatistic("journal.forces");
+			ReservationDTO reservation = _service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, LocalDateTime.of(2017, 2, 24, 17, 00)));
+			_service.confirmReservation(reservation);
+			
+			assertEquals(records, retrieveStatistic("journal.records"));
+			assertEquals(forces, retrieveStatistic("journal.forces"));
+		} catch(ServiceException e) {
+			fail();
+		}
+	}
+
+	@Test
+	public void testResetOnStartUp() throws Exception {
+		try {
+			UserDTO userDTO = new UserDTO("Bulldog", "123", "Churchill", "Winston");
+			_service.createUser(userDTO);
+			CreditCardDTO creditCard = new CreditCardDTO(CreditCardDTO.Type.Visa, "Winston Churchill", "4929-1500-0055-9544", LocalDate.of(2019, 7, 31));
+			_service.registerCreditCard(creditCard);
+			_service.confirmReservation(_service.reserveSeats(new ReservationRequestDTO(2, PriceBand.PriceBandA, 1L, LocalDateTime.of(2017, 2, 24, 17, 00))));
+			assertEquals(25, _service.getConcerts().size());
+		} catch(ServiceException e) {
+			fail();
+		}
+
+		// Without a reset, the user and their booking are kept.
+		System.setProperty(ConcertApplication.RESET_PROPERTY, "false");
+		try {
+			_server.stop();
+			_server.start();
+		} finally {
+			System.setProperty(ConcertApplication.RESET_PROPERTY, "true");
+		}
+		assertEquals(1, count("select count(u) from User u"));
+		assertEquals(1, count("select count(b) from Booking b"));
+
+		// The reset's bulk deletes remove them, but leave the catalog (the
+		// concerts and their performers) in the second-level and query caches.
+		long queryHits = retrieveStatistic("cache.queries.hits");
+		_server.stop();
+		_server.start();
+		assertEquals(0, count("select count(u) from User u"));
+		assertEquals(0, count("select count(b) from Booking b"));
+		assertEquals(0, count("select count(t) from AuthenticationToken t"));
+
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		try {
+			Cache cache = em.getEntityManagerFactory().unwrap(SessionFactory.class).getCache();
+			assertTrue(cache.containsEntity(Concert.class, 1L));
+			assertTrue(cache.containsEntity(Performer.class, 1L));
+		} finally {
+			em.close();
+		}
+		_service = new DefaultService();
+		assertEquals(25, _service.getConcerts().size());
+		assertEquals(queryHits + 1, retrieveStatistic("cache.queries.hits"));
+	}
+
+	/**
+	 * Runs a JPQL count query.
+	 */
+	private static long count(String query) {
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		try {
+			return em.createQuery(query, Long.class).getSingleResult();
+		} finally {
+			em.close();
+		}
+	}
+
+	@Test
+	public void testConnectionPoolStatistics() {
+		long acquired = retrieveStatistic("connections.acquired");
+		_service.getConcerts();
+
+		assertTrue(retrieveStatistic("connections.acquired") > acquired);
+		assertEquals(0, retrieveStatistic("connections.timeouts"));
+		assertTrue(retrieveStatistic("connections.total") <= 10);
+	}
+
 	@Test
 	public void testConfirmBookingWithExpiredReservation() {
 		try {
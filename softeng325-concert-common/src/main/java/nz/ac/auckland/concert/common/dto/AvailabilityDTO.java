@@ -0,0 +1,80 @@
+package nz.ac.auckland.concert.common.dto;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import nz.ac.auckland.concert.common.types.PriceBand;
+
+/**
+ * DTO class to represent the seat availability of a concert performance. 
+ * 
+ * An AvailabilityDTO describes availability in terms of:
+ * _concertId      the unique identifier of the concert.
+ * _date           the date/time of the concert performance.
+ * _availableSeats the number of seats in each price band that are neither 
+ *                 reserved nor booked.
+ *
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.FIELD)
+public class AvailabilityDTO {
+
+	private Long _concertId;
+	private LocalDateTime _date;
+	private Map<PriceBand, Integer> _availableSeats;
+
+	public AvailabilityDTO() {
+	}
+
+	public AvailabilityDTO(Long concertId, LocalDateTime date, 
+			Map<PriceBand, Integer> availableSeats) {
+		_concertId = concertId;
+		_date = date;
+		_availableSeats = new HashMap<PriceBand, Integer>(availableSeats);
+	}
+
+	public Long getConcertId() {
+		return _concertId;
+	}
+
+	public LocalDateTime getDate() {
+		return _date;
+	}
+
+	public int getNumberOfAvailableSeats(PriceBand priceBand) {
+		Integer available = _availableSeats.get(priceBand);
+		return (available == null ? 0 : available);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof AvailabilityDTO))
+            return false;
+        if (obj == this)
+            return true;
+
+        AvailabilityDTO rhs = (AvailabilityDTO) obj;
+        return new EqualsBuilder().
+            append(_concertId, rhs._concertId).
+            append(_date, rhs._date).
+            append(_availableSeats, rhs._availableSeats).
+            isEquals();
+	}
+	
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 31). 
+	            append(_concertId).
+	            append(_date).
+	            append(_availableSeats).
+	            hashCode();
+	}
+}
@@ -6,6 +6,7 @@ import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import nz.ac.auckland.concert.common.types.AllocationStrategy;
 import nz.ac.auckland.concert.common.types.PriceBand;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
@@ -20,6 +21,8 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  * _concertId     the identity of the concert for which to reserve seats.
  * _date          the date/time of the concert for which seats are to be 
  *                reserved.
+ * _allocation    how the seats are to be chosen. When not specified, seats
+ *                are chosen using AllocationStrategy.Random.
  *
  */
 @XmlRootElement
@@ -30,14 +33,21 @@ public class ReservationRequestDTO {
 	private PriceBand _seatType;
 	private Long _concertId;
 	private LocalDateTime _date;
+	private AllocationStrategy _allocation;
 	
 	public ReservationRequestDTO() {}
 	
 	public ReservationRequestDTO(int numberOfSeats, PriceBand seatType, Long concertId, LocalDateTime date) {
+		this(numberOfSeats, seatType, concertId, date, null);
+	}
+	
+	public ReservationRequestDTO(int numberOfSeats, PriceBand seatType, Long concertId, LocalDateTime date, 
+			AllocationStrategy allocation) {
 		_numberOfSeats = numberOfSeats;
 		_seatType = seatType;
 		_concertId = concertId;
 		_date = date;
+		_allocation = allocation;
 	}
 	
 	public int getNumberOfSeats() {
@@ -56,6 +66,10 @@ public class ReservationRequestDTO {
 		return _date;
 	}
 	
+	public AllocationStrategy getAllocation() {
+		return _allocation == null ? AllocationStrategy.Random : _allocation;
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		if (!(obj instanceof ReservationRequestDTO))
@@ -69,6 +83,7 @@ public class ReservationRequestDTO {
             append(_seatType, rhs._seatType).
             append(_concertId, rhs._concertId).
             append(_date, rhs._date).
+            append(getAllocation(), rhs.getAllocation()).
             isEquals();
 	}
 	
@@ -79,6 +94,7 @@ public class ReservationRequestDTO {
 	            append(_seatType).
 	            append(_concertId).
 	            append(_date).
+	            append(getAllocation()).
 	            hashCode();
 	}
 }
@@ -1,9 +1,10 @@
 package nz.ac.auckland.concert.common.dto;
 
+import java.util.Objects;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import nz.ac.auckland.concert.common.types.SeatNumber;
@@ -23,6 +24,10 @@ public class SeatDTO {
 	private SeatRow _row;
 	private SeatNumber _number;
 	
+	// seats are hashed heavily (e.g. when checked against a set of booked 
+	// seats), so the hash is computed once on first use
+	private transient int _hash;
+	
 	public SeatDTO() {}
 	
 	public SeatDTO(SeatRow row, SeatNumber number) {
@@ -46,18 +51,20 @@ public class SeatDTO {
             return true;
 
         SeatDTO rhs = (SeatDTO) obj;
-        return new EqualsBuilder().
-            append(_row, rhs._row).
-            append(_number, rhs._number).
-            isEquals();
+        return _row == rhs._row && Objects.equals(_number, rhs._number);
 	}
 	
 	@Override
 	public int hashCode() {
-		return new HashCodeBuilder(17, 31). 
-	            append(_row).
-	            append(_number).
-	            hashCode();
+		int hash = _hash;
+		if(hash == 0) {
+			hash = new HashCodeBuilder(17, 31). 
+		            append(_row).
+		            append(_number).
+		            hashCode();
+			_hash = hash;
+		}
+		return hash;
 	}
 	
 	@Override
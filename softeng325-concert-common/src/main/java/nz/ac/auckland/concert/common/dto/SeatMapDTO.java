@@ -0,0 +1,157 @@
+package nz.ac.auckland.concert.common.dto;
+
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import nz.ac.auckland.concert.common.types.SeatRow;
+import nz.ac.auckland.concert.common.util.TheatreLayout;
+
+/**
+ * DTO class to represent the seat occupancy of a concert performance. 
+ * 
+ * Seats are encoded as a bitmap with one bit per seat, indexed by the seat
+ * ordinals defined by TheatreLayout (seats numbered row by row, in SeatRow 
+ * order). The bitmap is sent as a base64 string holding the little-endian 
+ * bytes of a java.util.BitSet.
+ * 
+ * A SeatMapDTO describes a seat map in terms of:
+ * _concertId  the unique identifier of the concert.
+ * _date       the date/time of the concert performance.
+ * _version    the version of the performance's seat occupancy that the map
+ *             is up to date with.
+ * _rowLengths the number of seats in each row that has seats for sale.
+ * _occupied   the bitmap of seats that are reserved or booked.
+ * _changed    for a map holding only the changes since an earlier version,
+ *             the bitmap of seats that have changed; _occupied then only
+ *             describes these seats. Null for a complete map.
+ *
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.FIELD)
+public class SeatMapDTO {
+
+	private Long _concertId;
+	private LocalDateTime _date;
+	private long _version;
+	private Map<SeatRow, Integer> _rowLengths;
+	private String _occupied;
+	private String _changed;
+
+	public SeatMapDTO() {
+	}
+
+	public SeatMapDTO(Long concertId, LocalDateTime date, long version,
+			BitSet occupied, BitSet changed) {
+		_concertId = concertId;
+		_date = date;
+		_version = version;
+		_rowLengths = new EnumMap<SeatRow, Integer>(SeatRow.class);
+		for(SeatRow row : SeatRow.values()) {
+			if(TheatreLayout.getPriceBandForRow(row) != null) {
+				_rowLengths.put(row, TheatreLayout.getNumberOfSeatsForRow(row));
+			}
+		}
+		_occupied = encode(occupied);
+		_changed = (changed == null ? null : encode(changed));
+	}
+
+	public Long getConcertId() {
+		return _concertId;
+	}
+
+	public LocalDateTime getDate() {
+		return _date;
+	}
+
+	public long getVersion() {
+		return _version;
+	}
+
+	public Map<SeatRow, Integer> getRowLengths() {
+		return Collections.unmodifiableMap(_rowLengths);
+	}
+
+	/**
+	 * Returns true if this map only holds the changes since an earlier
+	 * version.
+	 */
+	public boolean isChanges() {
+		return _changed != null;
+	}
+
+	public BitSet getOccupied() {
+		return decode(_occupied);
+	}
+
+	/**
+	 * Returns the seats described by this map, or null for a complete map.
+	 */
+	public BitSet getChanged() {
+		return (_changed == null ? null : decode(_changed));
+	}
+
+	public boolean isOccupied(SeatDTO seat) {
+		return getOccupied().get(TheatreLayout.getOrdinal(seat));
+	}
+
+	/**
+	 * Returns a complete seat map that results from applying a map of 
+	 * changes (or a newer complete map) to this map.
+	 */
+	public SeatMapDTO update(SeatMapDTO changes) {
+		BitSet occupied = changes.getOccupied();
+		if(changes.isChanges()) {
+			BitSet unchanged = getOccupied();
+			unchanged.andNot(changes.getChanged());
+			occupied.or(unchanged);
+		}
+		return new SeatMapDTO(_concertId, _date, changes.getVersion(), occupied, null);
+	}
+
+	private static String encode(BitSet seats) {
+		return Base64.getEncoder().encodeToString(seats.toByteArray());
+	}
+
+	private static BitSet decode(String seats) {
+		return BitSet.valueOf(Base64.getDecoder().decode(seats));
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SeatMapDTO))
+            return false;
+        if (obj == this)
+            return true;
+
+        SeatMapDTO rhs = (SeatMapDTO) obj;
+        return new EqualsBuilder().
+            append(_concertId, rhs._concertId).
+            append(_date, rhs._date).
+            append(_version, rhs._version).
+            append(_occupied, rhs._occupied).
+            append(_changed, rhs._changed).
+            isEquals();
+	}
+	
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 31). 
+	            append(_concertId).
+	            append(_date).
+	            append(_version).
+	            append(_occupied).
+	            append(_changed).
+	            hashCode();
+	}
+}
@@ -19,10 +19,14 @@ public class Messages {
 	
 	public static final String RESERVATION_REQUEST_WITH_MISSING_FIELDS = "Unable to process reservation - missing fields in the request";
 	public static final String CONCERT_NOT_SCHEDULED_ON_RESERVATION_DATE = "Unable to process reservation - concert isn't scheduled on spcecified date";
+	public static final String CONCERT_NOT_SCHEDULED_ON_AVAILABILITY_DATE = "Unable to retrieve availability - concert isn't scheduled on specified date";
+	public static final String CONCERT_NOT_SCHEDULED_ON_SEAT_MAP_DATE = "Unable to retrieve seat map - concert isn't scheduled on specified date";
 	public static final String INSUFFICIENT_SEATS_AVAILABLE_FOR_RESERVATION = "Unable to make reservation - seats of the required type are not available";
 	
 	public static final String CREDIT_CARD_NOT_REGISTERED = "Unable to confirm reservation - credit card not registered";
 	public static final String EXPIRED_RESERVATION = "Unable to confirm reservation - reservation has expired";
 
+	public static final String INVALID_PAGE_LIMIT = "Unable to retrieve page - limit must be a positive number";
+
 	public static final String NO_IMAGE_FOR_PERFORMER = "Unable to download image - no image associated with requested performer";
 }
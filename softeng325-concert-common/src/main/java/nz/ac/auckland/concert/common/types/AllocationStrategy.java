@@ -0,0 +1,14 @@
+package nz.ac.auckland.concert.common.types;
+
+/**
+ * Enumerated type for selecting how seats are chosen for a reservation.
+ * 
+ * Random  seats are taken starting from a random free seat in the price band.
+ * BestFit adjacent seats are taken from the smallest gap in a single row that
+ *         can hold them all; when no row can, the reservation is split over
+ *         as few rows as possible.
+ *
+ */
+public enum AllocationStrategy {
+	Random, BestFit
+}
@@ -16,6 +16,14 @@ public class SeatNumber extends Number {
 	private static final int MIN = 1;
 	private static final int MAX = 26;
 	
+	private static final SeatNumber[] _values = new SeatNumber[MAX + 1];
+	
+	static {
+		for(int i = MIN; i <= MAX; i++) {
+			_values[i] = new SeatNumber(i);
+		}
+	}
+	
 	private int _value;
 	
 	public SeatNumber() {}
@@ -27,6 +35,17 @@ public class SeatNumber extends Number {
 		_value = value;
 	}
 
+	/**
+	 * Returns the shared SeatNumber instance for a value, avoiding an 
+	 * allocation.
+	 */
+	public static SeatNumber valueOf(int value) throws IllegalArgumentException {
+		if(value < MIN || value > MAX) {
+			throw new IllegalArgumentException();
+		}
+		return _values[value];
+	}
+
 	@Override
 	public int intValue() {
 		return _value;
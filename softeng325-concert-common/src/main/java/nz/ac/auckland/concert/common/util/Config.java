@@ -11,5 +11,12 @@ public class Config {
 	public static final String CLIENT_COOKIE = "clientId";
 		
 	public static final String CLIENT_SUBSCRIPTION = "clientSubscriptionId";
+	
+	/**
+	 * Name of the response header holding the cursor of the next page of a
+	 * paged listing, to be passed as the "after" query parameter. It is only
+	 * present when there may be more pages.
+	 */
+	public static final String NEXT_CURSOR_HEADER = "Next-Cursor";
 
 }
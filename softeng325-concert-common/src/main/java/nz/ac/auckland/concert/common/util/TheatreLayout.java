@@ -1,14 +1,25 @@
 package nz.ac.auckland.concert.common.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import nz.ac.auckland.concert.common.dto.SeatDTO;
 import nz.ac.auckland.concert.common.types.PriceBand;
+import nz.ac.auckland.concert.common.types.SeatNumber;
 import nz.ac.auckland.concert.common.types.SeatRow;
 
 /**
  * Utility class that models the layout of seats at the concert venue.
+ * 
+ * The layout also provides an immutable catalog of the venue's seats. Each
+ * seat is represented by a single shared SeatDTO instance and is identified 
+ * by a dense ordinal, numbering the seats row by row (in SeatRow order) 
+ * from 0 to getNumberOfSeats() - 1. Rows that aren't in any price band have
+ * no seats in the catalog.
  *
  */
 public class TheatreLayout {
@@ -17,6 +28,12 @@ public class TheatreLayout {
 	private static Set<SeatRow> _rowsInPriceBandB;
 	private static Set<SeatRow> _rowsInPriceBandC;
 	
+	// ordinal of the first seat of each row, indexed by SeatRow ordinal (-1
+	// for rows without seats)
+	private static int[] _rowOffsets;
+	private static SeatDTO[] _seats;
+	private static List<SeatDTO> _seatCatalog;
+	
 	static {
 		_rowsInPriceBandA = new HashSet<SeatRow>();
 		_rowsInPriceBandB = new HashSet<SeatRow>();
@@ -45,6 +62,21 @@ public class TheatreLayout {
 		_rowsInPriceBandB = Collections.unmodifiableSet(_rowsInPriceBandB);
 		_rowsInPriceBandC = Collections.unmodifiableSet(_rowsInPriceBandC);
 		
+		// intern each seat once, in ordinal order
+		List<SeatDTO> seats = new ArrayList<SeatDTO>();
+		_rowOffsets = new int[SeatRow.values().length];
+		for(SeatRow row : SeatRow.values()) {
+			if(getPriceBandForRow(row) == null) {
+				_rowOffsets[row.ordinal()] = -1;
+				continue;
+			}
+			_rowOffsets[row.ordinal()] = seats.size();
+			for(int i = 1; i <= getNumberOfSeatsForRow(row); i++) {
+				seats.add(new SeatDTO(row, SeatNumber.valueOf(i)));
+			}
+		}
+		_seats = seats.toArray(new SeatDTO[seats.size()]);
+		_seatCatalog = Collections.unmodifiableList(Arrays.asList(_seats));
 	}
 	
 	// This is utility class, so hide the constructor to prevent instantiation.
@@ -93,4 +125,77 @@ public class TheatreLayout {
 		return rows;
 	}
 	
+	/**
+	 * Returns the price band that a row belongs to, or null if the row isn't
+	 * in any price band.
+	 * 
+	 */
+	public static PriceBand getPriceBandForRow(SeatRow row) {
+		PriceBand priceBand = null;
+		
+		if(_rowsInPriceBandA.contains(row)) {
+			priceBand = PriceBand.PriceBandA;
+		} else if(_rowsInPriceBandB.contains(row)) {
+			priceBand = PriceBand.PriceBandB;
+		} else if(_rowsInPriceBandC.contains(row)) {
+			priceBand = PriceBand.PriceBandC;
+		}
+		return priceBand;
+	}
+	
+	/**
+	 * Returns the total number of seats at the concert venue.
+	 * 
+	 */
+	public static int getNumberOfSeats() {
+		return _seats.length;
+	}
+	
+	/**
+	 * Returns every seat at the concert venue, in ordinal order.
+	 * 
+	 */
+	public static List<SeatDTO> getSeats() {
+		return _seatCatalog;
+	}
+	
+	/**
+	 * Returns the shared SeatDTO instance with the specified ordinal.
+	 * 
+	 */
+	public static SeatDTO getSeat(int ordinal) {
+		return _seats[ordinal];
+	}
+	
+	/**
+	 * Returns the shared SeatDTO instance for a seat in a row.
+	 * 
+	 */
+	public static SeatDTO getSeat(SeatRow row, int number) {
+		return _seats[getOrdinal(row, number)];
+	}
+	
+	/**
+	 * Returns the ordinal of a seat in a row.
+	 * 
+	 * @throws IllegalArgumentException if the row doesn't have the seat.
+	 * 
+	 */
+	public static int getOrdinal(SeatRow row, int number) throws IllegalArgumentException {
+		int offset = _rowOffsets[row.ordinal()];
+		if(offset < 0 || number < 1 || number > getNumberOfSeatsForRow(row)) {
+			throw new IllegalArgumentException("No seat " + row + number);
+		}
+		return offset + number - 1;
+	}
+	
+	/**
+	 * Returns the ordinal of a seat.
+	 * 
+	 * @throws IllegalArgumentException if the venue doesn't have the seat.
+	 * 
+	 */
+	public static int getOrdinal(SeatDTO seat) throws IllegalArgumentException {
+		return getOrdinal(seat.getRow(), seat.getNumber().intValue());
+	}
 }
@@ -3,10 +3,17 @@ package nz.ac.auckland.concert.service.domain;
 import java.util.Random;
 
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.OneToOne;
+import javax.persistence.Table;
+
+import nz.ac.auckland.concert.service.services.AuthenticationTokenCache;
 
 @Entity
+@EntityListeners(AuthenticationTokenCache.class)
+@Table(indexes = @Index(name = "AUTHENTICATION_TOKEN_USER", columnList = "_USER__USERNAME", unique = true))
 public class AuthenticationToken {
 
 	@Id 
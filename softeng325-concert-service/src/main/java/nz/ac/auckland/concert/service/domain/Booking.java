@@ -4,22 +4,28 @@ import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.Set;
 
-import javax.persistence.CollectionTable;
+import javax.persistence.CascadeType;
+import javax.persistence.Column;
 import javax.persistence.Convert;
-import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import nz.ac.auckland.concert.common.types.PriceBand;
 import nz.ac.auckland.concert.service.domain.jpa.LocalDateTimeConverter;
+import nz.ac.auckland.concert.service.domain.jpa.SeatSetConverter;
 
 /**
  * Class to represent bookings (confirmed reservations). 
@@ -31,15 +37,27 @@ import nz.ac.auckland.concert.service.domain.jpa.LocalDateTimeConverter;
  * _dateTime       the concert's scheduled date and time for which the booking 
  *                 applies.
  * _seats          the seats that have been booked (represented as a  Set of 
- *                 SeatDTO objects).
+ *                 Seat objects, stored as a bitmask in the SEATS column).
  * _priceBand      the price band of the booked seats (all seats are within the 
  *                 same price band).
+ * _expiresAt      the time at which the booking expires unless it has been
+ *                 confirmed.
+ * _holds          the SeatHolds of the booked seats, when the booking was made
+ *                 in seat hold mode.
  *
  */
 @Entity
+@Table(indexes = {
+	@Index(name = "BOOKING_EXPIRES_AT", columnList = "EXPIRES_AT"),
+	// seats of a performance, optionally of one price band
+	@Index(name = "BOOKING_PERFORMANCE", columnList = "CONCERT_ID, _DATETIME, _PRICEBAND"),
+	// a user's bookings
+	@Index(name = "BOOKING_USER", columnList = "USER_ID, EXPIRES_AT")
+})
 public class Booking {
 	@Id
-	@GeneratedValue
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "bookingId")
+	@SequenceGenerator(name = "bookingId", sequenceName = "BOOKING_SEQUENCE", allocationSize = 50)
 	private Long _id;
 	
 	@ManyToOne
@@ -53,8 +71,8 @@ public class Booking {
 	@Convert(converter = LocalDateTimeConverter.class)
 	private LocalDateTime _dateTime;
 	
-	@ElementCollection
-	@CollectionTable(name = "BOOKING_SEATS")
+	@Convert(converter = SeatSetConverter.class)
+	@Column(name = "SEATS", nullable = false)
 	private Set<Seat> _seats;
 	
     @Enumerated(EnumType.STRING)
@@ -62,11 +80,19 @@ public class Booking {
 
     private boolean _confirmed;
     
+	@Convert(converter = LocalDateTimeConverter.class)
+	@Column(name = "EXPIRES_AT")
+	private LocalDateTime _expiresAt;
+    
+	@OneToMany(mappedBy = "_booking", cascade = CascadeType.ALL, orphanRemoval = true)
+	private Set<SeatHold> _holds = new HashSet<SeatHold>();
+    
 	public Booking() {
 	}
 
 	public Booking(Concert concert,
-			LocalDateTime dateTime, Set<Seat> seats, PriceBand priceBand, User user) {
+			LocalDateTime dateTime, Set<Seat> seats, PriceBand priceBand, User user, 
+			LocalDateTime expiresAt) {
 		_concert = concert;
 		_dateTime = dateTime;
 
@@ -78,6 +104,18 @@ public class Booking {
 		_user = user;
 		
 		_confirmed = false;
+		
+		_expiresAt = expiresAt;
+	}
+
+	/**
+	 * Adds a SeatHold for each of the booked seats, which is persisted and 
+	 * removed along with the booking.
+	 */
+	public void holdSeats(){
+		for(Seat seat : _seats){
+			_holds.add(new SeatHold(this, seat));
+		}
 	}
 
 	public Long getId(){
@@ -92,6 +130,10 @@ public class Booking {
 		return _confirmed;
 	}	
 	
+	public LocalDateTime getExpiresAt(){
+		return _expiresAt;
+	}
+	
 	public Concert getConcert() {
 		return _concert;
 	}
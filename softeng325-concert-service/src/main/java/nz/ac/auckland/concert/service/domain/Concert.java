@@ -11,21 +11,30 @@ import javax.persistence.CollectionTable;
 import javax.persistence.Column;
 import javax.persistence.Convert;
 import javax.persistence.ElementCollection;
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.EnumType;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
 import javax.persistence.MapKeyColumn;
 import javax.persistence.MapKeyEnumerated;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import nz.ac.auckland.concert.common.types.PriceBand;
 import nz.ac.auckland.concert.service.domain.jpa.LocalDateTimeConverter;
+import nz.ac.auckland.concert.service.services.CatalogSnapshot;
 
 /**
  * Class to represent concerts. 
@@ -39,19 +48,36 @@ import nz.ac.auckland.concert.service.domain.jpa.LocalDateTimeConverter;
  *               (A, B and C) is set individually for each concert. 
  * _performers   each performer playing at a concert 
  *
+ * Concerts are only loaded from db-init.sql, never changed, so they and 
+ * their collections are held in the second-level cache as read-only data.
+ * 
+ * The CATALOG_GRAPH entity graph fetches a Concert with all of its 
+ * collections, which are needed to make a ConcertDTO.
+ *
  */
 @Entity
 @Table(name = "CONCERTS")
+@NamedEntityGraph(name = Concert.CATALOG_GRAPH, attributeNodes = {
+		@NamedAttributeNode("_dates"),
+		@NamedAttributeNode("_tariff"),
+		@NamedAttributeNode("_performers") })
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+@EntityListeners(CatalogSnapshot.class)
 public class Concert {
+	public static final String CATALOG_GRAPH = "Concert.catalog";
 	
 	@Id
-	@GeneratedValue
+	// starts above the ids of the catalog loaded by db-init.sql
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "concertId")
+	@SequenceGenerator(name = "concertId", sequenceName = "CONCERT_SEQUENCE", initialValue = 1000, allocationSize = 50)
 	private Long _id;
 	
 	private String _title;
 	
 	@ElementCollection
 	@CollectionTable(name = "CONCERT_DATES")
+	@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
 	@Convert(converter = LocalDateTimeConverter.class)
 	private Set<LocalDateTime> _dates;
 	
@@ -60,12 +86,14 @@ public class Concert {
 	@MapKeyEnumerated(EnumType.STRING)
     @Column(name="COST")
 	@CollectionTable(name = "CONCERT_TARIFS")	
+	@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
 	private Map<PriceBand, BigDecimal> _tariff;
 	
 	@ManyToMany
 	@JoinTable(
 		name = "CONCERT_PERFORMER"
 	)
+	@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
 	private Set<Performer> _performers;
 
 	public Concert() {
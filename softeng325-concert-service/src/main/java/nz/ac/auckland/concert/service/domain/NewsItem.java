@@ -5,7 +5,9 @@ import java.time.LocalDateTime;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -27,7 +29,8 @@ import nz.ac.auckland.concert.service.domain.jpa.LocalDateTimeConverter;
 public class NewsItem {
 	
 	@Id
-	@GeneratedValue
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "newsItemId")
+	@SequenceGenerator(name = "newsItemId", sequenceName = "NEWS_ITEM_SEQUENCE", allocationSize = 50)
 	private Long _id;
 	
 	private Long _newsItemId;
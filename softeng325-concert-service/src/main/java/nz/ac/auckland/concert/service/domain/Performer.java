@@ -3,18 +3,27 @@ package nz.ac.auckland.concert.service.domain;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.ManyToMany;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import nz.ac.auckland.concert.common.types.Genre;
+import nz.ac.auckland.concert.service.services.CatalogSnapshot;
 
 /**
  * Class to represent performers. 
@@ -26,13 +35,24 @@ import nz.ac.auckland.concert.common.types.Genre;
  * _genre      the performer's genre.
  * _concerts   each concert in which the performer is playing. 
  *             
+ * Like Concerts, Performers are read-only and held in the second-level 
+ * cache. The CATALOG_GRAPH entity graph fetches a Performer with its 
+ * concerts, which are needed to make a PerformerDTO.
+ *
  */
 @Entity
 @Table(name = "PERFORMERS")
+@NamedEntityGraph(name = Performer.CATALOG_GRAPH, attributeNodes = @NamedAttributeNode("_concerts"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+@EntityListeners(CatalogSnapshot.class)
 public class Performer {
+	public static final String CATALOG_GRAPH = "Performer.catalog";
 	
 	@Id
-	@GeneratedValue
+	// starts above the ids of the catalog loaded by db-init.sql
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "performerId")
+	@SequenceGenerator(name = "performerId", sequenceName = "PERFORMER_SEQUENCE", initialValue = 1000, allocationSize = 50)
 	private Long _id;
 	
 	private String _name;
@@ -43,6 +63,7 @@ public class Performer {
 	private Genre _genre;
 	
 	@ManyToMany(mappedBy = "_performers")
+	@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
 	private Set<Concert> _concerts;
 	
 	public Performer() {}
@@ -1,12 +1,14 @@
 package nz.ac.auckland.concert.service.domain;
 
 
+import java.util.Objects;
+
 import javax.persistence.Convert;
 import javax.persistence.Embeddable;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
+import javax.persistence.Transient;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import nz.ac.auckland.concert.common.types.SeatNumber;
@@ -29,6 +31,10 @@ public class Seat {
 	@Convert(converter = SeatNumberConverter.class)
 	private SeatNumber _number;
 	
+	// seats are immutable, so the hash is computed at most once
+	@Transient
+	private transient int _hash;
+	
 	public Seat() {}
 	
 	public Seat(SeatRow row, SeatNumber number) {
@@ -52,18 +58,20 @@ public class Seat {
             return true;
 
         Seat rhs = (Seat) obj;
-        return new EqualsBuilder().
-            append(_row, rhs._row).
-            append(_number, rhs._number).
-            isEquals();
+        return _row == rhs._row && Objects.equals(_number, rhs._number);
 	}
 	
 	@Override
 	public int hashCode() {
-		return new HashCodeBuilder(17, 31). 
-	            append(_row).
-	            append(_number).
-	            hashCode();
+		int hash = _hash;
+		if(hash == 0) {
+			hash = new HashCodeBuilder(17, 31). 
+		            append(_row).
+		            append(_number).
+		            hashCode();
+			_hash = hash;
+		}
+		return hash;
 	}
 	
 	@Override
@@ -0,0 +1,87 @@
+package nz.ac.auckland.concert.service.domain;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.AttributeOverride;
+import javax.persistence.AttributeOverrides;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Embedded;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import nz.ac.auckland.concert.service.domain.jpa.LocalDateTimeConverter;
+
+/**
+ * Class to represent a single seat held by a booking (confirmed or not).
+ * 
+ * The table has a unique key on the concert, date/time and seat, so the 
+ * database itself rejects a second booking of a seat for a performance. 
+ * SeatHolds are only written when reservations are made in seat hold mode 
+ * (see ReservationEngine), and are owned by their Booking.
+ * 
+ * A SeatHold describes a held seat in terms of:
+ * _id       the unique identifier for the hold.
+ * _booking  the booking holding the seat.
+ * _concert  the concert.
+ * _dateTime the concert's scheduled date and time.
+ * _seat     the seat.
+ *
+ */
+@Entity
+@Table(name = "SEAT_HOLDS", uniqueConstraints = 
+	@UniqueConstraint(columnNames = {"CONCERT_ID", "DATE_TIME", "SEAT_ROW", "SEAT_NUMBER"}))
+public class SeatHold {
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "seatHoldId")
+	@SequenceGenerator(name = "seatHoldId", sequenceName = "SEAT_HOLD_SEQUENCE", allocationSize = 50)
+	private Long _id;
+	
+	@ManyToOne
+	@JoinColumn(name = "BOOKING_ID", nullable = false)
+	private Booking _booking;
+	
+	@ManyToOne
+	@JoinColumn(name = "CONCERT_ID", nullable = false)
+	private Concert _concert;
+	
+	@Convert(converter = LocalDateTimeConverter.class)
+	@Column(name = "DATE_TIME", nullable = false)
+	private LocalDateTime _dateTime;
+	
+	@Embedded
+	@AttributeOverrides({
+		@AttributeOverride(name = "_row", column = @Column(name = "SEAT_ROW", nullable = false)),
+		@AttributeOverride(name = "_number", column = @Column(name = "SEAT_NUMBER", nullable = false))
+	})
+	private Seat _seat;
+	
+	protected SeatHold() {
+	}
+	
+	public SeatHold(Booking booking, Seat seat) {
+		_booking = booking;
+		_concert = booking.getConcert();
+		_dateTime = booking.getDateTime();
+		_seat = seat;
+	}
+	
+	public Long getId() {
+		return _id;
+	}
+	
+	public Booking getBooking() {
+		return _booking;
+	}
+	
+	public Seat getSeat() {
+		return _seat;
+	}
+}
@@ -21,6 +21,6 @@ public class SeatNumberConverter implements
 
 	@Override
 	public SeatNumber convertToEntityAttribute(Integer number) {
-		return (number == null ? null : new SeatNumber(number));
+		return (number == null ? null : SeatNumber.valueOf(number));
 	}
 }
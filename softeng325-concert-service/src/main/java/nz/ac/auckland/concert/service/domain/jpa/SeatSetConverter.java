@@ -0,0 +1,49 @@
+package nz.ac.auckland.concert.service.domain.jpa;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import nz.ac.auckland.concert.service.domain.Seat;
+import nz.ac.auckland.concert.service.util.SeatCatalog;
+
+/**
+ * AttributeConverter class to convert sets of Seats to bitmasks, with one bit
+ * for each seat at the venue, set if the seat is in the set. Bits are indexed
+ * by the seat ordinals defined by TheatreLayout, and stored as the bytes of a
+ * BitSet, so a set of seats fits in a single column of a few dozen bytes.
+ *
+ * Seats are converted back to the shared instances held by SeatCatalog.
+ *
+ */
+@Converter
+public class SeatSetConverter implements AttributeConverter<Set<Seat>, byte[]> {
+
+	@Override
+	public byte[] convertToDatabaseColumn(Set<Seat> seats) {
+		if (seats == null) {
+			return null;
+		}
+		BitSet bits = new BitSet();
+		for (Seat seat : seats) {
+			bits.set(SeatCatalog.getOrdinal(seat));
+		}
+		return bits.toByteArray();
+	}
+
+	@Override
+	public Set<Seat> convertToEntityAttribute(byte[] bytes) {
+		if (bytes == null) {
+			return null;
+		}
+		BitSet bits = BitSet.valueOf(bytes);
+		Set<Seat> seats = new HashSet<Seat>();
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			seats.add(SeatCatalog.getSeat(i));
+		}
+		return seats;
+	}
+}
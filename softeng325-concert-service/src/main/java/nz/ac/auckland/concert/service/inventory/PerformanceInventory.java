@@ -0,0 +1,347 @@
+package nz.ac.auckland.concert.service.inventory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import nz.ac.auckland.concert.common.dto.SeatDTO;
+import nz.ac.auckland.concert.common.types.AllocationStrategy;
+import nz.ac.auckland.concert.common.types.PriceBand;
+import nz.ac.auckland.concert.common.util.TheatreLayout;
+import nz.ac.auckland.concert.service.domain.Booking;
+import nz.ac.auckland.concert.service.domain.Seat;
+import nz.ac.auckland.concert.service.inventory.ReservationJournal.Event;
+import nz.ac.auckland.concert.service.util.SeatCatalog;
+
+/**
+ * Seat inventory of a single performance, holding one SeatBitmap for each
+ * price band and a SeatChangeLog shared by the bitmaps.
+ *
+ * The inventory also tracks the holds of reservations (unconfirmed Bookings)
+ * in order of expiry. Holds that have expired are released lazily, whenever
+ * seats are allocated or availability is read, so an expired reservation's
+ * seats become free again without any database write; its Booking row is
+ * removed later by the ReservationExpiry sweep.
+ *
+ * Changes to the holds and to the confirmed seats are recorded in the
+ * ReservationJournal. Reservations and confirmations are committed to the
+ * journal before the methods recording them return.
+ *
+ */
+public class PerformanceInventory {
+
+	private final PerformanceKey _key;
+
+	private final Map<PriceBand, SeatBitmap> _bitmaps = new EnumMap<PriceBand, SeatBitmap>(PriceBand.class);
+
+	private final SeatChangeLog _changes = new SeatChangeLog();
+
+	/**
+	 * Unexpired holds by Booking id, and the same holds in order of expiry
+	 */
+	private final Map<Long, Hold> _holds = new HashMap<Long, Hold>();
+	private final PriorityQueue<Hold> _expiries = new PriorityQueue<Hold>(
+			Comparator.comparing((Hold hold) -> hold._expiresAt));
+
+	private long _expired;
+
+	public PerformanceInventory(PerformanceKey key) {
+		_key = key;
+		for (PriceBand band : PriceBand.values()) {
+			_bitmaps.put(band, new SeatBitmap(band, _changes));
+		}
+	}
+
+	public PerformanceKey getKey() {
+		return _key;
+	}
+
+	public SeatBitmap getBitmap(PriceBand priceBand) {
+		return _bitmaps.get(priceBand);
+	}
+
+	public SeatChangeLog getChangeLog() {
+		return _changes;
+	}
+
+	/**
+	 * Returns the number of available seats in each price band, after
+	 * releasing expired holds. The counters are read without locking, so the
+	 * result is a snapshot that may already be out of date when returned.
+	 */
+	public Map<PriceBand, Integer> getAvailability() {
+		reclaimExpired();
+		Map<PriceBand, Integer> availability = new EnumMap<PriceBand, Integer>(PriceBand.class);
+		for (Map.Entry<PriceBand, SeatBitmap> entry : _bitmaps.entrySet()) {
+			availability.put(entry.getKey(), entry.getValue().getAvailable());
+		}
+		return availability;
+	}
+
+	/**
+	 * Returns a bitmap, indexed by seat ordinal, of the seats that are held
+	 * or booked. The bands are copied one at a time, so the result reflects
+	 * at least every change up to the version read before calling this.
+	 */
+	public BitSet getOccupied() {
+		BitSet occupied = new BitSet(TheatreLayout.getNumberOfSeats());
+		for (SeatBitmap bitmap : _bitmaps.values()) {
+			bitmap.copyOccupied(occupied);
+		}
+		return occupied;
+	}
+
+	/**
+	 * Takes the requested number of seats from a price band using the given
+	 * allocation strategy, returning the empty set when the band doesn't have
+	 * enough free seats. The seats of expired holds count as free.
+	 */
+	public Set<SeatDTO> reserve(PriceBand priceBand, int numberOfSeats, AllocationStrategy strategy) {
+		reclaimExpired();
+		return getBitmap(priceBand).allocate(numberOfSeats, strategy);
+	}
+
+	/**
+	 * Records that the seats taken by reserve() are held by a reservation
+	 * until it expires. This is called before the reservation's Booking is
+	 * committed, so that the seats of a committed Booking are never free after
+	 * recovery; if the Booking isn't committed after all, the hold must be
+	 * withdrawn with withdraw().
+	 */
+	public void hold(Booking booking) {
+		synchronized (this) {
+			Hold hold = addHold(booking.getId(), booking.getPriceBand(), booking.getSeats(), booking.getExpiresAt());
+			ReservationJournal.instance().reserved(_key, hold._bookingId, hold._priceBand, hold._seats, hold._expiresAt);
+		}
+		ReservationJournal.instance().commit();
+	}
+
+	/**
+	 * Marks the seats of a reservation as booked.
+	 *
+	 * @return false if the reservation's hold has expired, in which case its
+	 *         seats may have been taken by another reservation.
+	 */
+	public boolean confirm(Booking booking) {
+		synchronized (this) {
+			reclaimExpired();
+			Hold hold = _holds.remove(booking.getId());
+			if (hold == null) {
+				return false;
+			}
+			_expiries.remove(hold);
+			getBitmap(hold._priceBand).confirm(hold._seats);
+			ReservationJournal.instance().changed(Event.CONFIRMED, _key, hold._bookingId, hold._priceBand, hold._seats);
+		}
+		ReservationJournal.instance().commit();
+		return true;
+	}
+
+	/**
+	 * Reverts confirm() for a reservation whose confirmation couldn't be
+	 * committed, holding its seats again until the reservation expires.
+	 */
+	public void unconfirm(Booking booking) {
+		synchronized (this) {
+			restoreHold(booking.getId(), booking.getPriceBand(), booking.getSeats(), booking.getExpiresAt());
+			Hold hold = _holds.get(booking.getId());
+			ReservationJournal.instance().reserved(_key, hold._bookingId, hold._priceBand, hold._seats, hold._expiresAt);
+		}
+		ReservationJournal.instance().commit();
+	}
+
+	/**
+	 * Returns the seats of a removed reservation to the inventory, unless its
+	 * hold has already expired.
+	 *
+	 * Unlike reservations and confirmations, the cancellation isn't committed
+	 * to the journal, so that removing a reservation doesn't wait for a disk
+	 * write. Losing it is harmless: the recovered inventory would hold the
+	 * seats until the reservation's expiry time and then free them, as it
+	 * does for reservations that expire (whose records aren't committed
+	 * either). It never frees seats that are booked.
+	 */
+	public synchronized void release(Booking booking) {
+		Hold hold = _holds.remove(booking.getId());
+		if (hold != null) {
+			_expiries.remove(hold);
+			getBitmap(hold._priceBand).release(hold._seats);
+			ReservationJournal.instance().changed(Event.CANCELLED, _key, hold._bookingId, hold._priceBand, hold._seats);
+		}
+	}
+
+	/**
+	 * Withdraws the hold of a reservation whose Booking couldn't be committed,
+	 * returning its seats to the inventory, unless the hold has already
+	 * expired.
+	 */
+	public void withdraw(Booking booking) {
+		synchronized (this) {
+			Hold hold = _holds.remove(booking.getId());
+			if (hold == null) {
+				return;
+			}
+			_expiries.remove(hold);
+			getBitmap(hold._priceBand).release(hold._seats);
+			ReservationJournal.instance().changed(Event.CANCELLED, _key, hold._bookingId, hold._priceBand, hold._seats);
+		}
+		ReservationJournal.instance().commit();
+	}
+
+	/**
+	 * Returns seats that were taken by reserve() but never held, e.g. because
+	 * the reservation couldn't be persisted.
+	 */
+	public void release(PriceBand priceBand, Set<Seat> seats) {
+		getBitmap(priceBand).release(seats);
+	}
+
+	/**
+	 * Releases the seats of every hold whose expiry time has passed.
+	 */
+	public synchronized void reclaimExpired() {
+		LocalDateTime now = LocalDateTime.now();
+		while (!_expiries.isEmpty() && !_expiries.peek()._expiresAt.isAfter(now)) {
+			Hold hold = _expiries.poll();
+			_holds.remove(hold._bookingId);
+			getBitmap(hold._priceBand).release(hold._seats);
+			ReservationJournal.instance().changed(Event.EXPIRED, _key, hold._bookingId, hold._priceBand, hold._seats);
+			_expired++;
+		}
+	}
+
+	/**
+	 * Holds seats for a reservation while the inventory is being loaded or
+	 * recovered, without recording it in the journal. Seats that were
+	 * confirmed (by a confirmation that was then reverted) are only held.
+	 */
+	synchronized void restoreHold(Long bookingId, PriceBand priceBand, Set<Seat> seats, LocalDateTime expiresAt) {
+		removeHold(bookingId);
+		SeatBitmap bitmap = getBitmap(priceBand);
+		for (Seat seat : seats) {
+			bitmap.occupy(seat.getRow(), seat.getNumber().intValue());
+		}
+		bitmap.unconfirm(seats);
+		addHold(bookingId, priceBand, seats, expiresAt);
+	}
+
+	/**
+	 * Books seats while the inventory is being loaded or recovered, without
+	 * recording it in the journal.
+	 */
+	synchronized void restoreConfirmation(Long bookingId, PriceBand priceBand, Set<Seat> seats) {
+		removeHold(bookingId);
+		SeatBitmap bitmap = getBitmap(priceBand);
+		for (Seat seat : seats) {
+			bitmap.occupy(seat.getRow(), seat.getNumber().intValue());
+			bitmap.confirm(seat.getRow(), seat.getNumber().intValue());
+		}
+	}
+
+	/**
+	 * Frees the seats of a cancelled or expired reservation while the
+	 * inventory is being recovered, without recording it in the journal.
+	 */
+	synchronized void restoreRelease(Long bookingId, PriceBand priceBand, Set<Seat> seats) {
+		removeHold(bookingId);
+		getBitmap(priceBand).release(seats);
+	}
+
+	/**
+	 * Writes the confirmed seats and the holds. Seats that have been 
+	 * allocated but aren't held yet are left out, since their reservation
+	 * hasn't been made.
+	 */
+	synchronized void writeState(DataOutput out) throws IOException {
+		ReservationJournal.writeKey(out, _key);
+		for (SeatBitmap bitmap : _bitmaps.values()) {
+			BitSet confirmed = new BitSet(TheatreLayout.getNumberOfSeats());
+			bitmap.copyConfirmed(confirmed);
+			ReservationJournal.writeBits(out, confirmed);
+		}
+		out.writeInt(_holds.size());
+		for (Hold hold : _holds.values()) {
+			out.writeLong(hold._bookingId);
+			out.writeByte(hold._priceBand.ordinal());
+			ReservationJournal.writeSeats(out, hold._seats);
+			ReservationJournal.writeTime(out, hold._expiresAt);
+		}
+	}
+
+	/**
+	 * Creates a performance's inventory from the state written by
+	 * writeState().
+	 */
+	static PerformanceInventory readState(DataInput in) throws IOException {
+		PerformanceInventory performance = new PerformanceInventory(ReservationJournal.readKey(in));
+		for (SeatBitmap bitmap : performance._bitmaps.values()) {
+			BitSet confirmed = ReservationJournal.readBits(in);
+			for (int i = confirmed.nextSetBit(0); i >= 0; i = confirmed.nextSetBit(i + 1)) {
+				Seat seat = SeatCatalog.getSeat(i);
+				bitmap.occupy(seat.getRow(), seat.getNumber().intValue());
+				bitmap.confirm(seat.getRow(), seat.getNumber().intValue());
+			}
+		}
+		for (int holds = in.readInt(); holds > 0; holds--) {
+			Long bookingId = in.readLong();
+			PriceBand priceBand = PriceBand.values()[in.readByte()];
+			Set<Seat> seats = ReservationJournal.readSeats(in);
+			performance.restoreHold(bookingId, priceBand, seats, ReservationJournal.readTime(in));
+		}
+		return performance;
+	}
+
+	private Hold addHold(Long bookingId, PriceBand priceBand, Set<Seat> seats, LocalDateTime expiresAt) {
+		Hold hold = new Hold(bookingId, priceBand, seats, expiresAt);
+		_holds.put(bookingId, hold);
+		_expiries.add(hold);
+		return hold;
+	}
+
+	private void removeHold(Long bookingId) {
+		Hold hold = _holds.remove(bookingId);
+		if (hold != null) {
+			_expiries.remove(hold);
+		}
+	}
+
+	/**
+	 * Number of reservations holding seats
+	 */
+	public synchronized int getHeldCount() {
+		return _holds.size();
+	}
+
+	/**
+	 * Number of reservations whose seats were released on expiry
+	 */
+	public synchronized long getExpiredCount() {
+		return _expired;
+	}
+
+	/**
+	 * The seats held by a reservation, and when they are held until
+	 */
+	private static class Hold {
+		private final Long _bookingId;
+		private final PriceBand _priceBand;
+		private final Set<Seat> _seats;
+		private final LocalDateTime _expiresAt;
+
+		private Hold(Long bookingId, PriceBand priceBand, Set<Seat> seats, LocalDateTime expiresAt) {
+			_bookingId = bookingId;
+			_priceBand = priceBand;
+			_seats = new HashSet<Seat>(seats);
+			_expiresAt = (expiresAt == null ? LocalDateTime.MAX : expiresAt);
+		}
+	}
+}
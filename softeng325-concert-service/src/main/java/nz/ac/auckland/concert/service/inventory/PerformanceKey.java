@@ -0,0 +1,61 @@
+package nz.ac.auckland.concert.service.inventory;
+
+import java.time.LocalDateTime;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Identifies a single performance, i.e. a concert on one of its scheduled
+ * dates.
+ * 
+ * A PerformanceKey describes a performance in terms of:
+ * _concertId the unique identifier of the concert.
+ * _date      the date and time of the performance.
+ *
+ */
+public class PerformanceKey {
+
+	private final Long _concertId;
+	private final LocalDateTime _date;
+	
+	public PerformanceKey(Long concertId, LocalDateTime date) {
+		_concertId = concertId;
+		_date = date;
+	}
+	
+	public Long getConcertId() {
+		return _concertId;
+	}
+	
+	public LocalDateTime getDate() {
+		return _date;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof PerformanceKey))
+            return false;
+        if (obj == this)
+            return true;
+
+        PerformanceKey rhs = (PerformanceKey) obj;
+        return new EqualsBuilder().
+            append(_concertId, rhs._concertId).
+            append(_date, rhs._date).
+            isEquals();
+	}
+	
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 31). 
+	            append(_concertId).
+	            append(_date).
+	            hashCode();
+	}
+	
+	@Override
+	public String toString() {
+		return _concertId + "@" + _date;
+	}
+}
@@ -0,0 +1,621 @@
+package nz.ac.auckland.concert.service.inventory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nz.ac.auckland.concert.common.types.PriceBand;
+import nz.ac.auckland.concert.service.domain.Seat;
+import nz.ac.auckland.concert.service.services.StorageProfile;
+import nz.ac.auckland.concert.service.util.SeatCatalog;
+
+/**
+ * Singleton append-only journal of the changes made to the in-memory seat
+ * inventory, from which the inventory is recovered when the service restarts
+ * without scanning the Booking table.
+ *
+ * Each change is appended as a record to a segment file, which is mapped into
+ * memory so that appending is a sequential memory write. A record is its
+ * length, a CRC32 of its payload and the payload: an Event and its data.
+ * Records of reservations and confirmations are made durable before the
+ * request that made them completes, with group commit: a thread calling
+ * commit() forces the segment to disk, covering every record appended so far,
+ * and threads that were waiting on it return without forcing again.
+ *
+ * Only the segment being appended to is mapped. A segment is unmapped as
+ * soon as the journal moves to the next one, rather than whenever its buffer
+ * is garbage collected, so segments that are deleted don't stay mapped. For
+ * this, moving to a segment takes the lock that commit() forces the segment
+ * with, before the journal's own lock.
+ *
+ * Every SNAPSHOT_INTERVAL_SECONDS, a snapshot of the whole inventory is
+ * written to the snapshot file. Segments are numbered, and a snapshot is
+ * taken by first moving to a new segment, so the snapshot reflects at least
+ * every record of the earlier segments, which are then deleted. Recovery
+ * reads the snapshot and replays the segments after it, stopping at the
+ * first incomplete record. Replaying records the snapshot already reflects
+ * is harmless: each record sets the state of the seats it names.
+ *
+ * A performance's records are only replayed on top of its state in the
+ * snapshot, or on a LOADED record, which holds its state as loaded from the
+ * database. A performance with neither is loaded from the database again when
+ * needed.
+ *
+ * The journal is kept in the directory given by the concert.journal.dir
+ * system property (~/concert-journal by default). It is only kept when the
+ * selected StorageProfile is durable and not shared: a database that is
+ * recreated at start-up leaves the inventory nothing to recover, and one
+ * shared with other nodes is changed by reservations this journal never
+ * sees. Otherwise no files are created and every method returns without
+ * doing anything.
+ *
+ */
+public class ReservationJournal {
+	public static final String DIRECTORY_PROPERTY = "concert.journal.dir";
+
+	public static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	public static final long SNAPSHOT_INTERVAL_SECONDS = 60;
+
+	/**
+	 * Types of journal records
+	 */
+	enum Event {
+		LOADED, RESERVED, CONFIRMED, CANCELLED, EXPIRED
+	}
+
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SNAPSHOT = "snapshot";
+
+	private static final ReservationJournal _instance = isKept(StorageProfile.selected())
+			? new ReservationJournal(Paths.get(System.getProperty(DIRECTORY_PROPERTY,
+					Paths.get(System.getProperty("user.home"), "concert-journal").toString())))
+			: new ReservationJournal();
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(ReservationJournal.class);
+
+	/**
+	 * Directory of the journal, or null if nothing is journalled
+	 */
+	private final Path _directory;
+
+	/**
+	 * Number and mapping of the segment being appended to
+	 */
+	private long _segment;
+	private MappedByteBuffer _buffer;
+
+	/**
+	 * Number of bytes appended since the journal was opened, and the number
+	 * of them that have been forced to disk
+	 */
+	private long _appended;
+	private volatile long _forced;
+	private final Object _forceLock = new Object();
+
+	/**
+	 * Value of _appended after the last record appended by each thread
+	 */
+	private final ThreadLocal<long[]> _lastAppended = ThreadLocal.withInitial(() -> new long[1]);
+
+	private final AtomicLong _records = new AtomicLong();
+	private final AtomicLong _commits = new AtomicLong();
+	private final AtomicLong _forces = new AtomicLong();
+	private final AtomicLong _snapshots = new AtomicLong();
+
+	private final ScheduledExecutorService _scheduler;
+
+	protected ReservationJournal(Path directory) {
+		_directory = directory;
+		try {
+			Files.createDirectories(_directory);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		openSegment(lastSegment() + 1);
+
+		_scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "reservation-journal");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		_scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				snapshot(SeatInventory.instance().getPerformances());
+			} catch (RuntimeException e) {
+				// an exception would stop the scheduler, so only log it
+				_logger.error("Unable to snapshot the seat inventory", e);
+			}
+		}, SNAPSHOT_INTERVAL_SECONDS, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Creates a journal that records nothing.
+	 */
+	protected ReservationJournal() {
+		_directory = null;
+		_scheduler = null;
+	}
+
+	public static ReservationJournal instance() {
+		return _instance;
+	}
+
+	/**
+	 * Whether a journal is kept for the given storage profile
+	 */
+	public static boolean isKept(StorageProfile profile) {
+		return profile.isDurable() && !profile.isShared();
+	}
+
+	/**
+	 * Records the state of a performance loaded from the database.
+	 */
+	void loaded(PerformanceInventory performance) {
+		append(Event.LOADED, out -> performance.writeState(out));
+	}
+
+	/**
+	 * Records that a reservation holds seats until it expires.
+	 */
+	void reserved(PerformanceKey key, Long bookingId, PriceBand priceBand, Set<Seat> seats,
+			LocalDateTime expiresAt) {
+		append(Event.RESERVED, out -> {
+			writeChange(out, key, bookingId, priceBand, seats);
+			writeTime(out, expiresAt);
+		});
+	}
+
+	/**
+	 * Records a change to the seats of a reservation: CONFIRMED, CANCELLED
+	 * or EXPIRED.
+	 */
+	void changed(Event event, PerformanceKey key, Long bookingId, PriceBand priceBand, Set<Seat> seats) {
+		append(event, out -> writeChange(out, key, bookingId, priceBand, seats));
+	}
+
+	/**
+	 * Makes the records appended by the calling thread durable, forcing the
+	 * segment to disk unless another thread already has since they were
+	 * appended.
+	 */
+	public void commit() {
+		if (_directory == null) {
+			return;
+		}
+		long position = _lastAppended.get()[0];
+		_commits.incrementAndGet();
+		if (position <= _forced) {
+			return;
+		}
+		synchronized (_forceLock) {
+			if (position <= _forced) {
+				return;
+			}
+			MappedByteBuffer buffer;
+			long appended;
+			synchronized (this) {
+				buffer = _buffer;
+				appended = _appended;
+			}
+			buffer.force();
+			_forced = appended;
+			_forces.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the given performances, which must reflect every
+	 * record appended before this is called, and deletes the segments it
+	 * makes unnecessary.
+	 */
+	public void snapshot(Collection<PerformanceInventory> performances) {
+		if (_directory == null) {
+			return;
+		}
+		long segment = nextSegment();
+
+		Path snapshot = _directory.resolve(SNAPSHOT);
+		Path temporary = _directory.resolve(SNAPSHOT + ".tmp");
+		try {
+			try (OutputStream file = Files.newOutputStream(temporary)) {
+				DataOutputStream out = new DataOutputStream(file);
+				out.writeLong(segment);
+				for (PerformanceInventory performance : performances) {
+					out.writeBoolean(true);
+					performance.writeState(out);
+				}
+				out.writeBoolean(false);
+				out.flush();
+			}
+			Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			for (Map.Entry<Long, Path> earlier : segments().headMap(segment).entrySet()) {
+				Files.delete(earlier.getValue());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		_snapshots.incrementAndGet();
+	}
+
+	/**
+	 * Rebuilds the inventories of the performances recorded by the snapshot
+	 * and journal. Records appended from then on go to a new segment.
+	 */
+	public Map<PerformanceKey, PerformanceInventory> recover() {
+		Map<PerformanceKey, PerformanceInventory> performances = new HashMap<PerformanceKey, PerformanceInventory>();
+		if (_directory == null) {
+			return performances;
+		}
+		long first = 0;
+		long current = nextSegment();
+		try {
+			Path snapshot = _directory.resolve(SNAPSHOT);
+			if (Files.exists(snapshot)) {
+				try (InputStream file = Files.newInputStream(snapshot)) {
+					DataInputStream in = new DataInputStream(file);
+					first = in.readLong();
+					while (in.readBoolean()) {
+						PerformanceInventory performance = PerformanceInventory.readState(in);
+						performances.put(performance.getKey(), performance);
+					}
+				}
+			}
+
+			for (Map.Entry<Long, Path> segment : segments().subMap(first, current).entrySet()) {
+				replay(segment.getValue(), performances);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return performances;
+	}
+
+	/**
+	 * Deletes the snapshot and all records.
+	 */
+	public void reset() {
+		if (_directory == null) {
+			return;
+		}
+		long current = nextSegment();
+		try {
+			Files.deleteIfExists(_directory.resolve(SNAPSHOT));
+			for (Path segment : segments().headMap(current).values()) {
+				Files.delete(segment);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Number of records appended
+	 */
+	public long getRecordCount() {
+		return _records.get();
+	}
+
+	/**
+	 * Number of calls to commit()
+	 */
+	public long getCommitCount() {
+		return _commits.get();
+	}
+
+	/**
+	 * Number of times the journal has been forced to disk, which is at most
+	 * the number of commits
+	 */
+	public long getForceCount() {
+		return _forces.get();
+	}
+
+	public long getSnapshotCount() {
+		return _snapshots.get();
+	}
+
+	private void append(Event event, Payload payload) {
+		if (_directory == null) {
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(event.ordinal());
+			payload.writeTo(out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		byte[] record = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(record);
+
+		while (!put(record, (int) crc.getValue())) {
+			synchronized (_forceLock) {
+				synchronized (this) {
+					if (!hasRoom(record)) {
+						openSegment(_segment + 1);
+					}
+				}
+			}
+		}
+		_records.incrementAndGet();
+	}
+
+	/**
+	 * Appends a record to the current segment, unless it doesn't have room.
+	 */
+	private synchronized boolean put(byte[] record, int checksum) {
+		if (!hasRoom(record)) {
+			return false;
+		}
+		int start = _buffer.position();
+		_buffer.position(start + 8);
+		_buffer.put(record);
+		_buffer.putInt(start + 4, checksum);
+		// the length is written last, so a record is never seen half written
+		_buffer.putInt(start, record.length);
+		_appended += record.length + 8;
+		_lastAppended.get()[0] = _appended;
+		return true;
+	}
+
+	private boolean hasRoom(byte[] record) {
+		// leave room for the zero length that ends the segment
+		return _buffer.remaining() >= record.length + 12;
+	}
+
+	/**
+	 * Moves to a new segment, returning its number.
+	 */
+	private long nextSegment() {
+		synchronized (_forceLock) {
+			synchronized (this) {
+				openSegment(_segment + 1);
+				return _segment;
+			}
+		}
+	}
+
+	/**
+	 * Maps a new, empty segment, after forcing the current one to disk and
+	 * unmapping it. Unless called from the constructor, the caller must hold
+	 * _forceLock, so that the current segment isn't being forced by commit().
+	 */
+	private synchronized void openSegment(long segment) {
+		MappedByteBuffer buffer;
+		Path path = _directory.resolve(SEGMENT_PREFIX + segment);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// the mapping stays valid after the channel is closed
+			buffer = channel.map(MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (_buffer != null) {
+			_buffer.force();
+			_forced = _appended;
+			unmap(_buffer);
+		}
+		_buffer = buffer;
+		_segment = segment;
+	}
+
+	private void replay(Path segment, Map<PerformanceKey, PerformanceInventory> performances) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		int replayed = 0;
+		try {
+			while (buffer.remaining() >= 8) {
+				int length = buffer.getInt();
+				int checksum = buffer.getInt();
+				if (length <= 0 || length > buffer.remaining()) {
+					break;
+				}
+				byte[] record = new byte[length];
+				buffer.get(record);
+				CRC32 crc = new CRC32();
+				crc.update(record);
+				if ((int) crc.getValue() != checksum) {
+					_logger.warn("Stopped replaying " + segment + " at a damaged record");
+					break;
+				}
+				apply(new DataInputStream(new ByteArrayInputStream(record)), performances);
+				replayed++;
+			}
+		} catch (BufferUnderflowException e) {
+			// the segment ends in a record that was never completed
+		} finally {
+			unmap(buffer);
+		}
+		_logger.debug("Replayed " + replayed + " records from " + segment);
+	}
+
+	private void apply(DataInput in, Map<PerformanceKey, PerformanceInventory> performances) throws IOException {
+		Event event = Event.values()[in.readByte()];
+		if (event == Event.LOADED) {
+			PerformanceInventory performance = PerformanceInventory.readState(in);
+			performances.put(performance.getKey(), performance);
+			return;
+		}
+
+		PerformanceKey key = readKey(in);
+		Long bookingId = in.readLong();
+		PriceBand priceBand = PriceBand.values()[in.readByte()];
+		Set<Seat> seats = readSeats(in);
+
+		// without a state to start from, the performance is loaded from the database
+		PerformanceInventory performance = performances.get(key);
+		if (performance == null) {
+			return;
+		}
+		switch (event) {
+		case RESERVED:
+			performance.restoreHold(bookingId, priceBand, seats, readTime(in));
+			break;
+		case CONFIRMED:
+			performance.restoreConfirmation(bookingId, priceBand, seats);
+			break;
+		default:
+			performance.restoreRelease(bookingId, priceBand, seats);
+		}
+	}
+
+	/**
+	 * Releases the mapping of a buffer that is no longer used, which would
+	 * otherwise last until the buffer is garbage collected. The buffer's
+	 * cleaner is reached by reflection: through DirectBuffer on Java 8, and
+	 * through Unsafe.invokeCleaner() on later versions. If neither is
+	 * available, the mapping is left to the garbage collector.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Method cleaner = buffer.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object clean = cleaner.invoke(buffer);
+			clean.getClass().getMethod("clean").invoke(clean);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			try {
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+			} catch (ReflectiveOperationException | RuntimeException f) {
+				_logger.debug("Unable to unmap a journal segment, leaving it to the garbage collector", f);
+			}
+		}
+	}
+
+	/**
+	 * Returns the segment files by number.
+	 */
+	private TreeMap<Long, Path> segments() throws IOException {
+		TreeMap<Long, Path> segments = new TreeMap<Long, Path>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(_directory, SEGMENT_PREFIX + "*")) {
+			for (Path file : files) {
+				segments.put(Long.parseLong(file.getFileName().toString().substring(SEGMENT_PREFIX.length())), file);
+			}
+		}
+		return segments;
+	}
+
+	private long lastSegment() {
+		try {
+			TreeMap<Long, Path> segments = segments();
+			return segments.isEmpty() ? 0 : segments.lastKey();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeChange(DataOutput out, PerformanceKey key, Long bookingId, PriceBand priceBand,
+			Set<Seat> seats) throws IOException {
+		writeKey(out, key);
+		out.writeLong(bookingId);
+		out.writeByte(priceBand.ordinal());
+		writeSeats(out, seats);
+	}
+
+	static void writeKey(DataOutput out, PerformanceKey key) throws IOException {
+		out.writeLong(key.getConcertId());
+		writeTime(out, key.getDate());
+	}
+
+	static PerformanceKey readKey(DataInput in) throws IOException {
+		return new PerformanceKey(in.readLong(), readTime(in));
+	}
+
+	static void writeTime(DataOutput out, LocalDateTime time) throws IOException {
+		out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+		out.writeInt(time.getNano());
+	}
+
+	static LocalDateTime readTime(DataInput in) throws IOException {
+		return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+	}
+
+	/**
+	 * Writes a set of seats as a bitmask indexed by seat ordinal, the way a
+	 * Booking's seats are stored.
+	 */
+	static void writeSeats(DataOutput out, Set<Seat> seats) throws IOException {
+		BitSet bits = new BitSet();
+		for (Seat seat : seats) {
+			bits.set(SeatCatalog.getOrdinal(seat));
+		}
+		writeBits(out, bits);
+	}
+
+	static Set<Seat> readSeats(DataInput in) throws IOException {
+		BitSet bits = readBits(in);
+		Set<Seat> seats = new HashSet<Seat>();
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			seats.add(SeatCatalog.getSeat(i));
+		}
+		return seats;
+	}
+
+	static void writeBits(DataOutput out, BitSet bits) throws IOException {
+		byte[] bytes = bits.toByteArray();
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	static BitSet readBits(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readUnsignedShort()];
+		in.readFully(bytes);
+		return BitSet.valueOf(bytes);
+	}
+
+	/**
+	 * Writes the data of a record
+	 */
+	@FunctionalInterface
+	private interface Payload {
+		void writeTo(DataOutput out) throws IOException;
+	}
+}
@@ -0,0 +1,406 @@
+package nz.ac.auckland.concert.service.inventory;
+
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import nz.ac.auckland.concert.common.dto.SeatDTO;
+import nz.ac.auckland.concert.common.types.AllocationStrategy;
+import nz.ac.auckland.concert.common.types.PriceBand;
+import nz.ac.auckland.concert.common.types.SeatRow;
+import nz.ac.auckland.concert.common.util.TheatreLayout;
+import nz.ac.auckland.concert.service.domain.Seat;
+
+/**
+ * Compact occupancy bitmap for the seats of one price band of a performance.
+ *
+ * Each row in the price band is held in a single long word (no row has more
+ * than 26 seats), where bit (n - 1) represents seat number n. A seat is
+ * occupied when it is held by an unconfirmed reservation or by a confirmed
+ * booking; confirmed seats are additionally tracked in their own bitmap.
+ *
+ * For each row the bitmap also keeps an index of the free runs (maximal
+ * stretches of adjacent free seats) in that row, as an int whose bit k is set
+ * when the row has a free run of exactly k seats. The index is refreshed
+ * whenever a row changes, and lets a best-fit search look at each row once
+ * rather than at each seat.
+ *
+ * Changes to the occupancy of seats are recorded in the performance's
+ * SeatChangeLog, when one is supplied.
+ *
+ * All mutators are synchronized on the bitmap. The number of available seats
+ * may be read without locking.
+ *
+ */
+public class SeatBitmap {
+
+	private final PriceBand _priceBand;
+
+	/**
+	 * Rows in the price band, in SeatRow order
+	 */
+	private final SeatRow[] _rows;
+
+	/**
+	 * Index into _rows for each SeatRow ordinal, or -1 if not in the band
+	 */
+	private final int[] _rowIndex;
+
+	/**
+	 * Bits of the seats that physically exist in each row
+	 */
+	private final long[] _rowMasks;
+
+	private final long[] _occupied;
+	private final long[] _confirmed;
+
+	/**
+	 * Ordinal (see TheatreLayout) of the first seat of each row
+	 */
+	private final int[] _rowOrdinals;
+
+	/**
+	 * Lengths of the free runs in each row (bit k set for a run of k seats)
+	 */
+	private final int[] _freeRuns;
+
+	private final int _capacity;
+	private volatile int _available;
+
+	private final SeatChangeLog _changes;
+
+	public SeatBitmap(PriceBand priceBand) {
+		this(priceBand, null);
+	}
+
+	public SeatBitmap(PriceBand priceBand, SeatChangeLog changes) {
+		_priceBand = priceBand;
+		_changes = changes;
+		_rows = EnumSet.copyOf(TheatreLayout.getRowsForPriceBand(priceBand)).toArray(new SeatRow[0]);
+
+		_rowIndex = new int[SeatRow.values().length];
+		for (int i = 0; i < _rowIndex.length; i++) {
+			_rowIndex[i] = -1;
+		}
+
+		_rowMasks = new long[_rows.length];
+		_occupied = new long[_rows.length];
+		_confirmed = new long[_rows.length];
+		_freeRuns = new int[_rows.length];
+		_rowOrdinals = new int[_rows.length];
+
+		int capacity = 0;
+		for (int i = 0; i < _rows.length; i++) {
+			int seats = TheatreLayout.getNumberOfSeatsForRow(_rows[i]);
+			_rowIndex[_rows[i].ordinal()] = i;
+			_rowMasks[i] = (1L << seats) - 1;
+			_freeRuns[i] = 1 << seats;
+			_rowOrdinals[i] = TheatreLayout.getOrdinal(_rows[i], 1);
+			capacity += seats;
+		}
+		_capacity = capacity;
+		_available = capacity;
+	}
+
+	public PriceBand getPriceBand() {
+		return _priceBand;
+	}
+
+	/**
+	 * Total number of seats in the price band
+	 */
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * Number of seats neither held nor booked. Reading this doesn't lock.
+	 */
+	public int getAvailable() {
+		return _available;
+	}
+
+	public synchronized boolean isOccupied(SeatRow row, int number) {
+		int index = indexOf(row);
+		return (_occupied[index] & bit(number)) != 0;
+	}
+
+	public synchronized boolean isConfirmed(SeatRow row, int number) {
+		int index = indexOf(row);
+		return (_confirmed[index] & bit(number)) != 0;
+	}
+
+	/**
+	 * Marks a seat as occupied. Returns false if it already was.
+	 */
+	public synchronized boolean occupy(SeatRow row, int number) {
+		int index = indexOf(row);
+		long bit = bit(number);
+		if ((_occupied[index] & bit) != 0) {
+			return false;
+		}
+		_occupied[index] |= bit;
+		_available--;
+		indexFreeRuns(index);
+		recordChanges(index, bit);
+		return true;
+	}
+
+	/**
+	 * Sets the bits of the occupied seats in a bitmap indexed by seat
+	 * ordinal.
+	 */
+	public synchronized void copyOccupied(BitSet seats) {
+		for (int i = 0; i < _rows.length; i++) {
+			long occupied = _occupied[i];
+			while (occupied != 0) {
+				seats.set(_rowOrdinals[i] + Long.numberOfTrailingZeros(occupied));
+				occupied &= occupied - 1;
+			}
+		}
+	}
+
+	/**
+	 * Sets the bits of the confirmed seats in a bitmap indexed by seat
+	 * ordinal.
+	 */
+	public synchronized void copyConfirmed(BitSet seats) {
+		for (int i = 0; i < _rows.length; i++) {
+			long confirmed = _confirmed[i];
+			while (confirmed != 0) {
+				seats.set(_rowOrdinals[i] + Long.numberOfTrailingZeros(confirmed));
+				confirmed &= confirmed - 1;
+			}
+		}
+	}
+
+	/**
+	 * Marks a held seat as belonging to a confirmed booking.
+	 */
+	public synchronized void confirm(SeatRow row, int number) {
+		int index = indexOf(row);
+		_confirmed[index] |= bit(number) & _occupied[index];
+	}
+
+	/**
+	 * Marks held seats as belonging to a confirmed booking.
+	 */
+	public synchronized void confirm(Set<Seat> seats) {
+		for (Seat s : seats) {
+			confirm(s.getRow(), s.getNumber().intValue());
+		}
+	}
+
+	/**
+	 * Marks seats of a confirmed booking as only held again.
+	 */
+	public synchronized void unconfirm(Set<Seat> seats) {
+		for (Seat s : seats) {
+			_confirmed[indexOf(s.getRow())] &= ~bit(s.getNumber().intValue());
+		}
+	}
+
+	/**
+	 * Returns seats to the pool of available seats.
+	 */
+	public synchronized void release(Set<Seat> seats) {
+		for (Seat s : seats) {
+			int index = indexOf(s.getRow());
+			long bit = bit(s.getNumber().intValue());
+			if ((_occupied[index] & bit) != 0) {
+				_occupied[index] &= ~bit;
+				_confirmed[index] &= ~bit;
+				_available++;
+				indexFreeRuns(index);
+				recordChanges(index, bit);
+			}
+		}
+	}
+
+	/**
+	 * Attempts to take the specified number of free seats using the given
+	 * allocation strategy. The chosen seats are marked as occupied.
+	 *
+	 * @return the seats taken, or the empty set if there aren't enough free
+	 *         seats in the band.
+	 */
+	public Set<SeatDTO> allocate(int numberOfSeats, AllocationStrategy strategy) {
+		if (strategy == AllocationStrategy.BestFit) {
+			return allocateBestFit(numberOfSeats);
+		}
+		return allocate(numberOfSeats);
+	}
+
+	/**
+	 * Attempts to take the specified number of free seats. Seats are chosen by
+	 * starting at a random free seat and walking forward through the band,
+	 * wrapping around at the last row. The chosen seats are marked as
+	 * occupied.
+	 *
+	 * @return the seats taken, or the empty set if there aren't enough free
+	 *         seats in the band.
+	 */
+	public synchronized Set<SeatDTO> allocate(int numberOfSeats) {
+		Set<SeatDTO> seats = new HashSet<SeatDTO>();
+		if (numberOfSeats <= 0 || numberOfSeats > _available) {
+			return seats;
+		}
+
+		// locate the row holding the randomly chosen starting seat
+		int skip = ThreadLocalRandom.current().nextInt(_available);
+		int index = 0;
+		while (skip >= Long.bitCount(free(index))) {
+			skip -= Long.bitCount(free(index));
+			index++;
+		}
+		long free = free(index);
+		for (int i = 0; i < skip; i++) {
+			free &= free - 1;
+		}
+
+		while (seats.size() < numberOfSeats) {
+			if (free == 0) {
+				index = (index + 1) % _rows.length;
+				free = free(index);
+				continue;
+			}
+			long lowest = free & -free;
+			_occupied[index] |= lowest;
+			recordChanges(index, lowest);
+			seats.add(TheatreLayout.getSeat(_rows[index], Long.numberOfTrailingZeros(lowest) + 1));
+			free &= free - 1;
+			if (free == 0 || seats.size() == numberOfSeats) {
+				indexFreeRuns(index);
+			}
+		}
+		_available -= numberOfSeats;
+
+		return seats;
+	}
+
+	/**
+	 * Attempts to take the specified number of free seats as adjacent seats
+	 * in one row. The smallest free run that can hold all of the seats is
+	 * used, so that larger runs are kept for larger groups. When no row has a
+	 * long enough run, the largest free runs are taken in turn until the
+	 * remainder fits, which splits the group over as few rows as possible.
+	 *
+	 * The search uses the free-run index, so it takes time proportional to
+	 * the number of rows in the band and the number of splits needed.
+	 *
+	 * @return the seats taken, or the empty set if there aren't enough free
+	 *         seats in the band.
+	 */
+	public synchronized Set<SeatDTO> allocateBestFit(int numberOfSeats) {
+		Set<SeatDTO> seats = new HashSet<SeatDTO>();
+		if (numberOfSeats <= 0 || numberOfSeats > _available) {
+			return seats;
+		}
+
+		int remaining = numberOfSeats;
+		while (remaining > 0) {
+			int bestIndex = -1;
+			int bestLength = Integer.MAX_VALUE;
+			int largestIndex = -1;
+			int largestLength = 0;
+
+			for (int i = 0; i < _rows.length; i++) {
+				int runs = _freeRuns[i];
+				if (runs == 0) {
+					continue;
+				}
+				// smallest run in the row that holds the remainder
+				int fitting = remaining < Integer.SIZE ? (runs >>> remaining) << remaining : 0;
+				if (fitting != 0 && Integer.numberOfTrailingZeros(fitting) < bestLength) {
+					bestIndex = i;
+					bestLength = Integer.numberOfTrailingZeros(fitting);
+				}
+				int longest = 31 - Integer.numberOfLeadingZeros(runs);
+				if (longest > largestLength) {
+					largestIndex = i;
+					largestLength = longest;
+				}
+			}
+
+			if (bestIndex >= 0) {
+				take(bestIndex, bestLength, remaining, seats);
+				remaining = 0;
+			} else {
+				take(largestIndex, largestLength, largestLength, seats);
+				remaining -= largestLength;
+			}
+		}
+		_available -= numberOfSeats;
+
+		return seats;
+	}
+
+	/**
+	 * Takes the first numberOfSeats seats of the leftmost free run of the
+	 * given length in a row.
+	 */
+	private void take(int index, int runLength, int numberOfSeats, Set<SeatDTO> seats) {
+		long free = free(index);
+		while (true) {
+			int start = Long.numberOfTrailingZeros(free);
+			int length = Long.numberOfTrailingZeros(~(free >>> start));
+			if (length == runLength) {
+				for (int number = start + 1; number <= start + numberOfSeats; number++) {
+					seats.add(TheatreLayout.getSeat(_rows[index], number));
+				}
+				long taken = ((1L << numberOfSeats) - 1) << start;
+				_occupied[index] |= taken;
+				indexFreeRuns(index);
+				recordChanges(index, taken);
+				return;
+			}
+			free &= ~(((1L << length) - 1) << start);
+		}
+	}
+
+	/**
+	 * Rebuilds the free-run index of a row after its occupancy has changed.
+	 */
+	private void indexFreeRuns(int index) {
+		long free = free(index);
+		int runs = 0;
+		while (free != 0) {
+			int start = Long.numberOfTrailingZeros(free);
+			int length = Long.numberOfTrailingZeros(~(free >>> start));
+			runs |= 1 << length;
+			free &= ~(((1L << length) - 1) << start);
+		}
+		_freeRuns[index] = runs;
+	}
+
+	/**
+	 * Records the seats of a row whose bits are set as changed.
+	 */
+	private void recordChanges(int index, long bits) {
+		if (_changes == null) {
+			return;
+		}
+		while (bits != 0) {
+			_changes.record(_rowOrdinals[index] + Long.numberOfTrailingZeros(bits));
+			bits &= bits - 1;
+		}
+	}
+
+	private long free(int index) {
+		return _rowMasks[index] & ~_occupied[index];
+	}
+
+	private int indexOf(SeatRow row) {
+		int index = _rowIndex[row.ordinal()];
+		if (index < 0) {
+			throw new IllegalArgumentException("Row " + row + " is not in " + _priceBand);
+		}
+		return index;
+	}
+
+	private static long bit(int number) {
+		return 1L << (number - 1);
+	}
+}
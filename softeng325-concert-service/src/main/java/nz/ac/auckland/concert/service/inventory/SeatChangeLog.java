@@ -0,0 +1,52 @@
+package nz.ac.auckland.concert.service.inventory;
+
+import java.util.BitSet;
+
+/**
+ * Bounded log of the seats whose occupancy has changed in a performance.
+ *
+ * Every change is given the next version number, so the version of a
+ * performance is the number of changes made to it. The log keeps the ordinals
+ * (see TheatreLayout) of the last CAPACITY changed seats in a ring buffer,
+ * which is enough to tell a client that polls regularly which seats to
+ * refresh. Clients that fall further behind need the whole seat map.
+ *
+ */
+public class SeatChangeLog {
+
+	public static final int CAPACITY = 1024;
+
+	private final int[] _ordinals = new int[CAPACITY];
+
+	private long _version;
+
+	/**
+	 * Records a change to the seat with the given ordinal.
+	 */
+	public synchronized void record(int ordinal) {
+		_ordinals[(int) (_version % CAPACITY)] = ordinal;
+		_version++;
+	}
+
+	public synchronized long getVersion() {
+		return _version;
+	}
+
+	/**
+	 * Returns the ordinals of the seats changed after version from, up to and
+	 * including version to.
+	 *
+	 * @return the changed seats, or null if the changes are no longer held in
+	 *         the log (or from isn't a version of this log).
+	 */
+	public synchronized BitSet getChanges(long from, long to) {
+		if (from < 0 || from > to || to > _version || _version - from > CAPACITY) {
+			return null;
+		}
+		BitSet changed = new BitSet();
+		for (long version = from; version < to; version++) {
+			changed.set(_ordinals[(int) (version % CAPACITY)]);
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,222 @@
+package nz.ac.auckland.concert.service.inventory;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nz.ac.auckland.concert.common.types.PriceBand;
+import nz.ac.auckland.concert.service.domain.Booking;
+import nz.ac.auckland.concert.service.domain.Seat;
+
+/**
+ * Singleton in-memory inventory of seats, keeping a PerformanceInventory (one
+ * SeatBitmap per price band) for each performance.
+ *
+ * A performance's inventory is loaded lazily from the Booking table the first
+ * time it is needed. From then on it is kept up to date as reservations are
+ * made, confirmed and expire, so seat allocation never has to rescan the
+ * database. Unconfirmed Bookings that have already expired are ignored when
+ * loading, as their seats are free.
+ *
+ * With a durable storage profile, every change is recorded in the
+ * ReservationJournal, from which the inventory is recovered by recover()
+ * after a restart.
+ *
+ */
+public class SeatInventory {
+	private static final SeatInventory _instance = new SeatInventory();
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(SeatInventory.class);
+
+	private final ConcurrentMap<PerformanceKey, PerformanceInventory> _performances =
+			new ConcurrentHashMap<PerformanceKey, PerformanceInventory>();
+
+	/**
+	 * Expired count of the performances that have been discarded
+	 */
+	private volatile long _expired;
+
+	protected SeatInventory() {
+	}
+
+	public static SeatInventory instance() {
+		return _instance;
+	}
+
+	/**
+	 * Returns the inventory of a performance, loading it from the Booking
+	 * table using the supplied EntityManager if it isn't held in memory yet.
+	 */
+	public PerformanceInventory getPerformance(EntityManager em, Long concertId, LocalDateTime date) {
+		return _performances.computeIfAbsent(new PerformanceKey(concertId, date), key -> load(em, key));
+	}
+
+	/**
+	 * Returns the inventory of a performance if it is held in memory,
+	 * otherwise null.
+	 */
+	public PerformanceInventory getLoadedPerformance(Long concertId, LocalDateTime date) {
+		return _performances.get(new PerformanceKey(concertId, date));
+	}
+
+	/**
+	 * Discards the inventory of a performance, so that it is loaded from the
+	 * database again when next needed. This brings in changes made by other
+	 * nodes sharing the database, which the inventory doesn't see otherwise.
+	 */
+	public synchronized void evict(Long concertId, LocalDateTime date) {
+		PerformanceInventory performance = _performances.remove(new PerformanceKey(concertId, date));
+		if (performance != null) {
+			_expired += performance.getExpiredCount();
+		}
+	}
+
+	/**
+	 * Records that a reservation is being confirmed.
+	 *
+	 * @return false if the reservation's hold has expired, in which case it
+	 *         must not be confirmed.
+	 */
+	public boolean confirm(Booking booking) {
+		PerformanceInventory performance = getLoadedPerformance(booking.getConcertId(), booking.getDateTime());
+		return performance == null || performance.confirm(booking);
+	}
+
+	/**
+	 * Reverts confirm() for a reservation whose confirmation couldn't be
+	 * committed, so that its seats are held again until it expires.
+	 */
+	public void unconfirm(Booking booking) {
+		PerformanceInventory performance = getLoadedPerformance(booking.getConcertId(), booking.getDateTime());
+		if (performance != null) {
+			performance.unconfirm(booking);
+		}
+	}
+
+	/**
+	 * Returns the seats of a removed reservation to the inventory, unless its
+	 * hold has already expired.
+	 */
+	public void release(Booking booking) {
+		PerformanceInventory performance = getLoadedPerformance(booking.getConcertId(), booking.getDateTime());
+		if (performance != null) {
+			performance.release(booking);
+		}
+	}
+
+	/**
+	 * Number of reservations holding seats, after releasing expired holds
+	 */
+	public int getHeldCount() {
+		int held = 0;
+		for (PerformanceInventory performance : _performances.values()) {
+			performance.reclaimExpired();
+			held += performance.getHeldCount();
+		}
+		return held;
+	}
+
+	/**
+	 * Number of reservations whose seats have been released on expiry
+	 */
+	public long getExpiredCount() {
+		long expired = _expired;
+		for (PerformanceInventory performance : _performances.values()) {
+			expired += performance.getExpiredCount();
+		}
+		return expired;
+	}
+
+	/**
+	 * The inventories of the performances held in memory
+	 */
+	public Collection<PerformanceInventory> getPerformances() {
+		return _performances.values();
+	}
+
+	/**
+	 * Discards all state, in memory and in the journal, e.g. after the 
+	 * Booking table is cleared.
+	 */
+	public synchronized void clear() {
+		discard();
+		ReservationJournal.instance().reset();
+	}
+
+	/**
+	 * Replaces the in-memory state with the state recorded by the journal,
+	 * and snapshots it. Performances the journal doesn't know about are 
+	 * loaded from the database when needed, as usual.
+	 */
+	public synchronized void recover() {
+		long start = System.currentTimeMillis();
+		discard();
+		
+		Map<PerformanceKey, PerformanceInventory> recovered = ReservationJournal.instance().recover();
+		_performances.putAll(recovered);
+		ReservationJournal.instance().snapshot(_performances.values());
+		
+		_logger.info("Recovered the seat inventory of " + recovered.size() + " performances in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private void discard() {
+		for (PerformanceInventory performance : _performances.values()) {
+			_expired += performance.getExpiredCount();
+		}
+		_performances.clear();
+	}
+
+	private PerformanceInventory load(EntityManager em, PerformanceKey key) {
+		PerformanceInventory performance = new PerformanceInventory(key);
+
+		// only the seat columns are needed, so don't hydrate Booking entities
+		List<Object[]> bookings =
+				em.createQuery("select b._id, b._priceBand, b._confirmed, b._expiresAt, b._seats "
+						+ "from Booking b "
+						+ "where b._concert._id = :id "
+						+ "and b._dateTime = :date", Object[].class)
+				.setParameter("id", key.getConcertId())
+				.setParameter("date", key.getDate())
+				.getResultList();
+
+		LocalDateTime now = LocalDateTime.now();
+		int bookedSeats = 0;
+
+		for (Object[] booking : bookings) {
+			PriceBand priceBand = (PriceBand) booking[1];
+			boolean confirmed = (Boolean) booking[2];
+			LocalDateTime expiresAt = (LocalDateTime) booking[3];
+			@SuppressWarnings("unchecked")
+			Set<Seat> seats = (Set<Seat>) booking[4];
+
+			// the seats of expired reservations are free
+			if (!confirmed && expiresAt != null && !expiresAt.isAfter(now)) {
+				continue;
+			}
+
+			if (confirmed) {
+				performance.restoreConfirmation((Long) booking[0], priceBand, seats);
+			} else {
+				performance.restoreHold((Long) booking[0], priceBand, seats, expiresAt);
+			}
+			bookedSeats += seats.size();
+		}
+
+		// the journal's records of the performance start from its loaded state
+		ReservationJournal.instance().loaded(performance);
+
+		_logger.debug("Loaded seat inventory for " + key + ": " + bookedSeats + " seats booked");
+		return performance;
+	}
+}
@@ -0,0 +1,119 @@
+package nz.ac.auckland.concert.service.reservation;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.ServiceUnavailableException;
+
+import nz.ac.auckland.concert.service.inventory.PerformanceKey;
+import nz.ac.auckland.concert.service.services.StorageProfile;
+
+/**
+ * Singleton that runs the work of reserving seats on single-writer
+ * partitions.
+ *
+ * Each performance (a concert on one of its dates) is mapped to one of a
+ * fixed number of partitions, and every partition has its own queue drained
+ * by a single thread. All reservations for a performance are therefore made
+ * one after another by the same thread, so picking the seats and inserting
+ * the Booking needs no database locks, while reservations for different
+ * performances proceed in parallel on different partitions.
+ *
+ * The number of partitions is set by the system property
+ * concert.reservation.partitions, and defaults to the number of processors.
+ *
+ * Alternatively, setting the system property concert.reservation.seatholds
+ * to true selects seat hold mode. Reservations are then made directly on the
+ * request threads, and each booked seat is also written as a SeatHold row
+ * whose unique key makes the database reject a seat being booked twice. A
+ * reservation that loses such a race is retried with freshly picked seats,
+ * so contention only affects the seats actually in conflict. Seat hold mode
+ * is always used with a StorageProfile shared by several nodes, since the
+ * partitions of one node don't serialise the reservations of another.
+ *
+ */
+public class ReservationEngine {
+	public static final int PARTITIONS = Math.max(1, Integer.getInteger(
+			"concert.reservation.partitions", Runtime.getRuntime().availableProcessors()));
+
+	public static final String SEAT_HOLDS_PROPERTY = "concert.reservation.seatholds";
+
+	/**
+	 * Number of times a reservation is attempted in seat hold mode
+	 */
+	public static final int SEAT_HOLD_ATTEMPTS = 3;
+
+	private static final ReservationEngine _instance = new ReservationEngine();
+
+	private final ThreadPoolExecutor[] _partitions;
+
+	protected ReservationEngine() {
+		_partitions = new ThreadPoolExecutor[PARTITIONS];
+		for (int i = 0; i < PARTITIONS; i++) {
+			final String name = "reservation-partition-" + i;
+			_partitions[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), runnable -> {
+						Thread thread = new Thread(runnable, name);
+						thread.setDaemon(true);
+						return thread;
+					});
+		}
+	}
+
+	public static ReservationEngine instance() {
+		return _instance;
+	}
+
+	/**
+	 * Returns true if reservations are made in seat hold mode, rather than on
+	 * the partitions.
+	 */
+	public static boolean isSeatHoldMode() {
+		return Boolean.getBoolean(SEAT_HOLDS_PROPERTY) || StorageProfile.selected().isShared();
+	}
+
+	/**
+	 * Runs a task on the partition that owns a performance and waits for its
+	 * result. A RuntimeException thrown by the task (e.g. a
+	 * WebApplicationException describing a failed reservation) is rethrown to
+	 * the caller.
+	 */
+	public <T> T submit(PerformanceKey performance, Callable<T> task) {
+		Future<T> result = partitionOf(performance).submit(task);
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			result.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new ServiceUnavailableException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Number of tasks waiting in the queue of each partition
+	 */
+	public int[] getQueueLengths() {
+		int[] lengths = new int[PARTITIONS];
+		for (int i = 0; i < PARTITIONS; i++) {
+			lengths[i] = _partitions[i].getQueue().size();
+		}
+		return lengths;
+	}
+
+	private ThreadPoolExecutor partitionOf(PerformanceKey performance) {
+		return _partitions[Math.floorMod(performance.hashCode(), PARTITIONS)];
+	}
+}
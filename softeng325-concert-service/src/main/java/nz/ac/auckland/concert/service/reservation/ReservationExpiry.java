@@ -0,0 +1,108 @@
+package nz.ac.auckland.concert.service.reservation;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nz.ac.auckland.concert.service.services.PersistenceManager;
+
+/**
+ * Singleton that removes expired reservations (unconfirmed Bookings) from the
+ * database.
+ *
+ * An expired reservation stops holding its seats as soon as its expiry time
+ * passes: the in-memory seat inventory treats its seats as free from then
+ * on, and it can no longer be confirmed. Removing its rows is therefore only
+ * housekeeping, done by a low-priority background thread that sweeps the
+ * Booking table at start-up and then every SWEEP_INTERVAL_SECONDS. Each sweep
+ * is a handful of bulk deletes driven by the index on the expiry time, and
+ * only touches rows that no reservation or confirmation will use again.
+ *
+ */
+public class ReservationExpiry {
+	public static final long SWEEP_INTERVAL_SECONDS = 60;
+
+	private static final ReservationExpiry _instance = new ReservationExpiry();
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(ReservationExpiry.class);
+
+	private final AtomicLong _swept = new AtomicLong();
+
+	private final ScheduledExecutorService _scheduler;
+
+	protected ReservationExpiry() {
+		_scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "reservation-expiry");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		_scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				sweep();
+			} catch (RuntimeException e) {
+				// an exception would stop the scheduler, so only log it
+				_logger.error("Unable to sweep expired reservations", e);
+			}
+		}, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	public static ReservationExpiry instance() {
+		return _instance;
+	}
+
+	/**
+	 * Number of expired reservations removed from the database
+	 */
+	public long getSweptCount() {
+		return _swept.get();
+	}
+
+	/**
+	 * Removes all unconfirmed Bookings whose expiry time has passed.
+	 *
+	 * @return the number of Bookings removed.
+	 */
+	public int sweep() {
+		LocalDateTime time = LocalDateTime.now();
+
+		// Acquire an EntityManager (creating a new persistence context).
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		try {
+			// Start a new transaction.
+			em.getTransaction().begin();
+
+			// bulk deletes don't cascade, so remove the dependent rows first
+			em.createQuery("delete from SeatHold h where h._booking._id in "
+					+ "(select b._id from Booking b where b._confirmed = false and b._expiresAt < :time)")
+					.setParameter("time", time)
+					.executeUpdate();
+			int swept = em.createQuery("delete from Booking b "
+					+ "where b._confirmed = false and b._expiresAt < :time")
+					.setParameter("time", time)
+					.executeUpdate();
+
+			// Commit the transaction.
+			em.getTransaction().commit();
+
+			if (swept > 0) {
+				_swept.addAndGet(swept);
+				_logger.info("Swept " + swept + " expired reservations");
+			}
+			return swept;
+		} finally {
+			if (em.getTransaction().isActive()) {
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package nz.ac.auckland.concert.service.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+import nz.ac.auckland.concert.service.domain.AuthenticationToken;
+
+/**
+ * Singleton holding the usernames of recently used authentication tokens, so
+ * that a request from a user with an active session is authenticated without
+ * reading the database. The bound on the number of tokens held can be
+ * overridden with the concert.tokens.cache.size system property.
+ *
+ * Every authenticated request looks a token up, so lookups take no lock: the
+ * tokens are held in a ConcurrentHashMap, and a hit only records the time of
+ * use in its entry. Eviction is therefore approximate. When a token added
+ * takes the cache over its bound, one thread removes the least recently used
+ * tokens in a batch (an eighth of the bound), while the others carry on
+ * without waiting for it, so the bound can briefly be exceeded.
+ *
+ * Only tokens found in the database are added, so an unrecognised token is
+ * always looked up again. The class is also registered as a JPA entity
+ * listener of AuthenticationToken, discarding a token whenever it is issued
+ * or removed. Bulk deletes bypass entity listeners, so whatever removes
+ * tokens with one must call clear().
+ *
+ */
+public class AuthenticationTokenCache {
+	public static final String SIZE_PROPERTY = "concert.tokens.cache.size";
+
+	private static final int DEFAULT_SIZE = 10000;
+
+	private static final int EVICTION_BATCH_DIVISOR = 8;
+
+	private static final AuthenticationTokenCache _instance = new AuthenticationTokenCache(
+			Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+
+	private final int _capacity;
+
+	private final ConcurrentHashMap<String, Entry> _usernames = new ConcurrentHashMap<String, Entry>();
+
+	// Set while a thread is evicting tokens
+	private final AtomicBoolean _evicting = new AtomicBoolean();
+
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+
+	/**
+	 * Only used by JPA, to create entity listeners. Use instance() instead.
+	 */
+	public AuthenticationTokenCache() {
+		this(0);
+	}
+
+	private AuthenticationTokenCache(int capacity) {
+		_capacity = capacity;
+	}
+
+	public static AuthenticationTokenCache instance() {
+		return _instance;
+	}
+
+	/**
+	 * Returns the username of the user a token is associated with, or null if
+	 * the token isn't cached.
+	 */
+	public String get(String token) {
+		Entry entry = _usernames.get(token);
+		if (entry == null) {
+			_misses.incrementAndGet();
+			return null;
+		}
+		entry._lastUsed = System.nanoTime();
+		_hits.incrementAndGet();
+		return entry._username;
+	}
+
+	/**
+	 * Caches the username of the user a token (found in the database) is
+	 * associated with.
+	 */
+	public void put(String token, String username) {
+		_usernames.put(token, new Entry(username));
+		if (_usernames.size() > _capacity) {
+			evict();
+		}
+	}
+
+	/**
+	 * Discards a token, so that it is looked up in the database on next use.
+	 */
+	public void invalidate(String token) {
+		_usernames.remove(token);
+	}
+
+	/**
+	 * Discards all tokens.
+	 */
+	public void clear() {
+		_usernames.clear();
+	}
+
+	public int getSize() {
+		return _usernames.size();
+	}
+
+	public long getHitCount() {
+		return _hits.get();
+	}
+
+	public long getMissCount() {
+		return _misses.get();
+	}
+
+	public long getEvictionCount() {
+		return _evictions.get();
+	}
+
+	/**
+	 * Removes the least recently used tokens, unless another thread is
+	 * already doing so.
+	 */
+	private void evict() {
+		if (!_evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			int excess = _usernames.size() - _capacity;
+			if (excess <= 0) {
+				return;
+			}
+			List<Map.Entry<String, Entry>> entries = new ArrayList<Map.Entry<String, Entry>>(_usernames.entrySet());
+			entries.sort(Comparator.comparingLong(entry -> entry.getValue()._lastUsed));
+			int count = Math.min(entries.size(), Math.max(excess, _capacity / EVICTION_BATCH_DIVISOR));
+			for (int i = 0; i < count; i++) {
+				// leave a token that was put again meanwhile
+				if (_usernames.remove(entries.get(i).getKey(), entries.get(i).getValue())) {
+					_evictions.incrementAndGet();
+				}
+			}
+		} finally {
+			_evicting.set(false);
+		}
+	}
+
+	/**
+	 * JPA entity listener callback for changes to AuthenticationTokens
+	 */
+	@PostPersist
+	@PostUpdate
+	@PostRemove
+	void tokenChanged(AuthenticationToken token) {
+		_instance.invalidate(token.getValue());
+	}
+
+	/**
+	 * A cached username and the time its token was last used
+	 */
+	private static class Entry {
+		private final String _username;
+		private volatile long _lastUsed = System.nanoTime();
+
+		private Entry(String username) {
+			_username = username;
+		}
+	}
+}
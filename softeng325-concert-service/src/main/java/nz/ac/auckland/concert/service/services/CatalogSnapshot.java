@@ -0,0 +1,141 @@
+package nz.ac.auckland.concert.service.services;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.ws.rs.core.EntityTag;
+
+/**
+ * Singleton holding the serialised responses of the catalog resources (the
+ * Concert and Performer lists), so that they are only marshalled again when
+ * the catalog changes. Each snapshot has a strong entity tag computed from
+ * its content, which clients can send back in If-None-Match.
+ *
+ * The class is also registered as a JPA entity listener of Concert and
+ * Performer, discarding the snapshots whenever either is persisted, updated
+ * or removed. Each snapshot records the generation of the catalog it was
+ * built in, and is only used while that is still the current generation, so
+ * one that was being built while the catalog changed is returned to its
+ * requester but never used again.
+ *
+ */
+public class CatalogSnapshot {
+	private static final CatalogSnapshot _instance = new CatalogSnapshot();
+
+	private final AtomicReference<Snapshot> _concerts = new AtomicReference<Snapshot>();
+	private final AtomicReference<Snapshot> _performers = new AtomicReference<Snapshot>();
+
+	/**
+	 * Incremented whenever the catalog changes
+	 */
+	private final AtomicLong _generation = new AtomicLong();
+
+	/**
+	 * Only used by JPA, to create entity listeners. Use instance() instead.
+	 */
+	public CatalogSnapshot() {
+	}
+
+	public static CatalogSnapshot instance() {
+		return _instance;
+	}
+
+	/**
+	 * Returns the snapshot of the Concert list, serialising it with the given
+	 * function if there isn't one.
+	 */
+	public Snapshot getConcerts(Supplier<byte[]> serialiser) {
+		return get(_concerts, serialiser);
+	}
+
+	/**
+	 * Returns the snapshot of the Performer list, serialising it with the
+	 * given function if there isn't one.
+	 */
+	public Snapshot getPerformers(Supplier<byte[]> serialiser) {
+		return get(_performers, serialiser);
+	}
+
+	/**
+	 * Discards the snapshots, so that they are rebuilt on next use.
+	 */
+	public void invalidate() {
+		_generation.incrementAndGet();
+		_concerts.set(null);
+		_performers.set(null);
+	}
+
+	private Snapshot get(AtomicReference<Snapshot> reference, Supplier<byte[]> serialiser) {
+		// read the generation first, so that a snapshot built from here on is
+		// never newer than the generation it records
+		long generation = _generation.get();
+		Snapshot snapshot = reference.get();
+		if (snapshot != null && snapshot._generation == generation) {
+			return snapshot;
+		}
+
+		snapshot = new Snapshot(serialiser.get(), generation);
+
+		// keep it unless a snapshot of the same or a later generation has been
+		// kept meanwhile
+		Snapshot current;
+		do {
+			current = reference.get();
+			if (current != null && current._generation >= generation) {
+				break;
+			}
+		} while (!reference.compareAndSet(current, snapshot));
+		return snapshot;
+	}
+
+	/**
+	 * JPA entity listener callback for changes to Concerts and Performers
+	 */
+	@PostPersist
+	@PostUpdate
+	@PostRemove
+	void catalogChanged(Object entity) {
+		_instance.invalidate();
+	}
+
+	/**
+	 * A serialised response, its entity tag and the generation of the catalog
+	 * it was built in
+	 */
+	public static class Snapshot {
+		private final byte[] _content;
+		private final EntityTag _entityTag;
+		private final long _generation;
+
+		private Snapshot(byte[] content, long generation) {
+			_content = content;
+			_entityTag = new EntityTag(digest(content));
+			_generation = generation;
+		}
+
+		public byte[] getContent() {
+			return _content;
+		}
+
+		public EntityTag getEntityTag() {
+			return _entityTag;
+		}
+
+		private static String digest(byte[] content) {
+			try {
+				byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+				return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+			} catch (NoSuchAlgorithmException e) {
+				// every Java platform supports SHA-256
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
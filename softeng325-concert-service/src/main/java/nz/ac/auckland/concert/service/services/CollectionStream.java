@@ -0,0 +1,121 @@
+package nz.ac.auckland.concert.service.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.query.Query;
+
+/**
+ * StreamingOutput that writes the rows of a query as an XML collection of
+ * DTOs, in the same form as RESTEasy's JAXB collection provider (a collection
+ * element holding one element per DTO), so clients read it as they would a
+ * GenericEntity<Set<...>>.
+ *
+ * The rows are scrolled through with a forward-only cursor, and each is
+ * converted and marshalled as a fragment as soon as it is read, so memory
+ * use doesn't grow with the number of rows. The servlet container sends what
+ * has been written whenever its response buffer fills, so a large collection
+ * starts reaching the client before the rest of its rows are read. (RESTEasy's
+ * servlet output stream ignores flush(), so a response smaller than the
+ * buffer is still sent in one piece.)
+ *
+ * The response is written after the PersistenceFilter has ended the request's
+ * transaction, so the query is run with an EntityManager of its own. It
+ * should select scalar columns, as projection queries do, so that nothing
+ * accumulates in that EntityManager's persistence context.
+ *
+ */
+public class CollectionStream<T> implements StreamingOutput {
+	private static final String COLLECTION_ELEMENT = "collection";
+
+	/**
+	 * Rows fetched from the database at a time
+	 */
+	private static final int FETCH_SIZE = 100;
+
+	private static final XMLOutputFactory _outputFactory = XMLOutputFactory.newInstance();
+
+	// JAXBContexts are expensive to create, and thread safe once created.
+	private static final Map<Class<?>, JAXBContext> _contexts = new ConcurrentHashMap<Class<?>, JAXBContext>();
+
+	private final Class<T> _type;
+	private final Function<EntityManager, TypedQuery<Object[]>> _query;
+	private final Function<Object[], T> _mapper;
+
+	/**
+	 * @param type the DTO class, which must be an XmlRootElement.
+	 * @param query creates the query whose rows are written, with the given
+	 * EntityManager.
+	 * @param mapper converts a row to a DTO.
+	 */
+	public CollectionStream(Class<T> type, Function<EntityManager, TypedQuery<Object[]>> query,
+			Function<Object[], T> mapper) {
+		_type = type;
+		_query = query;
+		_mapper = mapper;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException, WebApplicationException {
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		ScrollableResults rows = null;
+		try {
+			Marshaller marshaller = context(_type).createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+
+			XMLStreamWriter writer = _outputFactory.createXMLStreamWriter(output, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement(COLLECTION_ELEMENT);
+
+			em.getTransaction().begin();
+			rows = _query.apply(em).unwrap(Query.class)
+					.setFetchSize(FETCH_SIZE)
+					.setReadOnly(true)
+					.scroll(ScrollMode.FORWARD_ONLY);
+			while (rows.next()) {
+				marshaller.marshal(_mapper.apply(rows.get()), writer);
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+
+			em.getTransaction().commit();
+		} catch (JAXBException | XMLStreamException e) {
+			// The status has been sent, so the client sees a truncated document.
+			throw new IOException(e);
+		} finally {
+			if (rows != null) {
+				rows.close();
+			}
+			if (em.getTransaction().isActive()) {
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+	}
+
+	private static JAXBContext context(Class<?> type) throws JAXBException {
+		JAXBContext context = _contexts.get(type);
+		if (context == null) {
+			context = JAXBContext.newInstance(type);
+			_contexts.put(type, context);
+		}
+		return context;
+	}
+}
@@ -1,17 +1,19 @@
 package nz.ac.auckland.concert.service.services;
 
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.ws.rs.ApplicationPath;
 import javax.ws.rs.core.Application;
 
-import nz.ac.auckland.concert.service.domain.AuthenticationToken;
-import nz.ac.auckland.concert.service.domain.Booking;
-import nz.ac.auckland.concert.service.domain.NewsItem;
-import nz.ac.auckland.concert.service.domain.User;
+import org.hibernate.query.NativeQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nz.ac.auckland.concert.service.inventory.ReservationJournal;
+import nz.ac.auckland.concert.service.inventory.SeatInventory;
+import nz.ac.auckland.concert.service.reservation.ReservationExpiry;
 
 /**
  * JAX-RS application subclass for the Concert Web service. This class is
@@ -21,6 +23,14 @@ import nz.ac.auckland.concert.service.domain.User;
  * The base URI for the Concert Web service is:
  * 
  * http://<host-name>:<port>/services.
+ * 
+ * On start-up, the users and everything they have made (bookings, tokens)
+ * are removed, as well as news items, if the concert.startup.reset system
+ * property is true. It defaults to false for durable storage profiles, whose
+ * data is meant to outlive the service (and, for a shared database, is in
+ * use by other nodes), and to true otherwise. The catalog is kept. When the
+ * data is kept by a durable storage profile that isn't shared, the in-memory
+ * seat inventory is recovered from the ReservationJournal.
  *
  */
 @ApplicationPath("/services")
@@ -32,51 +42,80 @@ public class ConcertApplication extends Application {
 	//
 	// This property is used by class ConcertServiceTest.
 	public static final int RESERVATION_EXPIRY_TIME_IN_SECONDS = 5;
+	
+	public static final String RESET_PROPERTY = "concert.startup.reset";
+	
+	private static Logger _logger = LoggerFactory
+			.getLogger(ConcertApplication.class);
 
 	private Set<Object> _singletons = new HashSet<Object>();
 	private Set<Class<?>> _classes = new HashSet<Class<?>>();
 
 	public ConcertApplication() {
+		long start = System.currentTimeMillis();
+		
 		_singletons.add(PersistenceManager.instance());
 		_singletons.add(new NewsResource());
+		_singletons.add(new PersistenceFilter());
 		_classes.add(ConcertResource.class);
+		_classes.add(StatisticsResource.class);
 		
 		// clear the effects of previous tests running
-		EntityManager em = null;
+		StorageProfile profile = StorageProfile.selected();
+		if(Boolean.parseBoolean(System.getProperty(RESET_PROPERTY, Boolean.toString(!profile.isDurable())))) {
+			reset();
+			
+			// the in-memory seat inventory is rebuilt from the (now empty) Booking table
+			SeatInventory.instance().clear();
+		} else if(ReservationJournal.isKept(profile)) {
+			// the in-memory seat inventory is rebuilt from its snapshot and journal
+			SeatInventory.instance().recover();
+		} else {
+			SeatInventory.instance().clear();
+		}
+		
+		// the catalog may have been reloaded, so serialise it again when next requested
+		CatalogSnapshot.instance().invalidate();
+		// and look up tokens again, since they may have been removed
+		AuthenticationTokenCache.instance().clear();
+		
+		// remove any reservations that expired while the service was down,
+		// and start sweeping expired reservations periodically
+		ReservationExpiry.instance().sweep();
+		
+		_logger.info("Started in " + (System.currentTimeMillis() - start) + " ms");
+	}
+	
+	/**
+	 * Deletes all users, their bookings and tokens, and news items, with bulk 
+	 * deletes in one transaction. Bulk deletes don't cascade, so rows are 
+	 * deleted before the rows they reference.
+	 */
+	private void reset() {
+		EntityManager em = PersistenceManager.instance().createEntityManager();
 		try {
-			em = PersistenceManager.instance().createEntityManager();
 			em.getTransaction().begin();
-		
-			// can't use JPQL to bulk delete "delete from ?" because deletion is not cascaded
-			List<Booking> bookings = em.createQuery("select b from Booking b", Booking.class).getResultList();
-			for(Booking b : bookings){
-				em.remove(b);
-			}
-
-			List<AuthenticationToken> tokens = 
-					em.createQuery("select a from AuthenticationToken a", AuthenticationToken.class).getResultList();
-			for(AuthenticationToken a : tokens){
-				em.remove(a);
-			}
 			
-			List<NewsItem> newsItems = em.createQuery("select n from NewsItem n", NewsItem.class).getResultList();
-			for(NewsItem n : newsItems){
-				em.remove(n);
-			}
-			
-			List<User> users = em.createQuery("select u from User u", User.class).getResultList();
-			for(User u : users){
-				em.remove(u);
-			}
+			em.createQuery("delete from SeatHold").executeUpdate();
+			int bookings = em.createQuery("delete from Booking").executeUpdate();
+			em.createQuery("delete from AuthenticationToken").executeUpdate();
+			em.createQuery("delete from NewsItem").executeUpdate();
+			// name the table changed, or Hibernate would clear every cache region
+			em.createNativeQuery("delete from USER_CREDITCARDS")
+					.unwrap(NativeQuery.class)
+					.addSynchronizedQuerySpace("USER_CREDITCARDS")
+					.executeUpdate();
+			int users = em.createQuery("delete from User").executeUpdate();
 			
 			em.getTransaction().commit();
-		
+			
+			_logger.info("Removed " + bookings + " bookings and " + users + " users");
 		} finally {
-			if(em != null && em.isOpen()){
-				em.close();
+			if(em.getTransaction().isActive()) {
+				em.getTransaction().rollback();
 			}
+			em.close();
 		}
-		
 	}
 
 	@Override
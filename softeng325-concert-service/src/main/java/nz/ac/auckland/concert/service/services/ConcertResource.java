@@ -1,29 +1,49 @@
 package nz.ac.auckland.concert.service.services;
 
-import java.util.HashSet;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.LockModeType;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.CookieParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotAuthorizedException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
 
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.exception.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nz.ac.auckland.concert.common.dto.AvailabilityDTO;
 import nz.ac.auckland.concert.common.dto.BookingDTO;
 import nz.ac.auckland.concert.common.dto.ConcertDTO;
 import nz.ac.auckland.concert.common.dto.CreditCardDTO;
@@ -31,6 +51,7 @@ import nz.ac.auckland.concert.common.dto.PerformerDTO;
 import nz.ac.auckland.concert.common.dto.ReservationDTO;
 import nz.ac.auckland.concert.common.dto.ReservationRequestDTO;
 import nz.ac.auckland.concert.common.dto.SeatDTO;
+import nz.ac.auckland.concert.common.dto.SeatMapDTO;
 import nz.ac.auckland.concert.common.dto.UserDTO;
 import nz.ac.auckland.concert.common.message.Messages;
 import nz.ac.auckland.concert.common.util.Config;
@@ -40,7 +61,11 @@ import nz.ac.auckland.concert.service.domain.Concert;
 import nz.ac.auckland.concert.service.domain.CreditCard;
 import nz.ac.auckland.concert.service.domain.Performer;
 import nz.ac.auckland.concert.service.domain.User;
-import nz.ac.auckland.concert.service.util.TheatreUtility;
+import nz.ac.auckland.concert.service.inventory.PerformanceInventory;
+import nz.ac.auckland.concert.service.inventory.PerformanceKey;
+import nz.ac.auckland.concert.service.inventory.SeatInventory;
+import nz.ac.auckland.concert.service.reservation.ReservationEngine;
+import nz.ac.auckland.concert.service.services.CatalogSnapshot.Snapshot;
 
 /**
  * Class to implement a simple REST Web service for managing Concerts, Performers, Users and Bookings.
@@ -49,60 +74,234 @@ import nz.ac.auckland.concert.service.util.TheatreUtility;
 @Path("/concerts")
 public class ConcertResource {
 	public static final int LOCK_TIMEOUT_MILLISECONDS = 5000;
+	
+	/**
+	 * Query cache region holding the results of the catalog queries
+	 */
+	public static final String CATALOG_CACHE_REGION = "catalog";
+	
+	private static final String LOAD_GRAPH = "javax.persistence.loadgraph";
+	
+	/**
+	 * Largest page of a paged listing. Larger limits are reduced to it.
+	 */
+	public static final int MAX_PAGE_SIZE = 100;
 
 	private static Logger _logger = LoggerFactory
 			.getLogger(ConcertResource.class);
 
 	/**
-	 * Retrieves all Concerts
+	 * Retrieves all Concerts. The serialised list is kept by CatalogSnapshot 
+	 * until the catalog changes, and isn't sent again to clients that already 
+	 * have it (whose If-None-Match header matches its entity tag).
 	 * 
-	 * @return a Response object containing all the Concerts.
+	 * If a limit is given, only a page of at most that many Concerts is 
+	 * returned, in order of id, starting after the Concert whose id is given
+	 * by after (if any). When the page is full, the Next-Cursor header holds
+	 * the after value of the next page.
+	 * 
+	 * @return a Response object containing all the Concerts, or a 304 
+	 * (Not Modified) response, or a page of Concerts.
 	 */
 	@GET
 	@Produces(javax.ws.rs.core.MediaType.APPLICATION_XML)
-	public Response retrieveConcerts() {
-		ResponseBuilder builder = null;
-
-		// Acquire an EntityManager (creating a new persistence context).
-		EntityManager em = PersistenceManager.instance().createEntityManager();
-		// Start a new transaction.
-		em.getTransaction().begin();
-
-		// Use the EntityManager to retrieve all Concerts.
-		TypedQuery<Concert> concertQuery = em.createQuery("select c from Concert c", Concert.class);
-		List<Concert> concerts = concertQuery.getResultList();
-				
-		// Return all the concerts
-		GenericEntity<Set<ConcertDTO>> entity = new GenericEntity<Set<ConcertDTO>>(DomainMapper.concertsToDTO(concerts)){};
-		builder = Response.ok(entity);
+	public Response retrieveConcerts(@Context Request request, @Context Providers providers,
+			@QueryParam("limit") Integer limit, @QueryParam("after") Long after) {
+		if(limit != null) {
+			return retrieveConcertPage(checkLimit(limit), after);
+		}
+		
+		Snapshot snapshot = CatalogSnapshot.instance().getConcerts(() -> serialise(providers,
+				new GenericEntity<Set<ConcertDTO>>(DomainMapper.concertsToDTO(findConcerts())){}));
 
-		return builder.build();
+		return snapshotResponse(request, snapshot);
 	}
 
 	/**
-	 * Retrieves all Performers
+	 * Retrieves all Performers. The serialised list is kept by CatalogSnapshot 
+	 * until the catalog changes, and isn't sent again to clients that already 
+	 * have it (whose If-None-Match header matches its entity tag).
 	 * 
-	 * @return a Response object containing all the Performers.
+	 * @return a Response object containing all the Performers, or a 304 
+	 * (Not Modified) response.
 	 */
 	@GET
 	@Path("/performers")
 	@Produces(javax.ws.rs.core.MediaType.APPLICATION_XML)
-	public Response retrievePerformers() {
-		ResponseBuilder builder = null;
+	public Response retrievePerformers(@Context Request request, @Context Providers providers) {
+		Snapshot snapshot = CatalogSnapshot.instance().getPerformers(() -> serialise(providers,
+				new GenericEntity<Set<PerformerDTO>>(DomainMapper.performersToDTO(findPerformers())){}));
 
-		// Acquire an EntityManager (creating a new persistence context).
-		EntityManager em = PersistenceManager.instance().createEntityManager();
-		// Start a new transaction.
-		em.getTransaction().begin();
+		return snapshotResponse(request, snapshot);
+	}
+
+	private Response retrieveConcertPage(int limit, Long after) {
+		// Acquire the request's EntityManager, which has a transaction started.
+		EntityManager em = PersistenceManager.instance().getRequestEntityManager();
+		
+		// Find the ids of the page first, since a page can't be limited in the 
+		// database while the Concerts' collections are fetched with them.
+		List<Long> ids = em.createQuery("select c._id from Concert c "
+						+ "where c._id > :after order by c._id", Long.class)
+				.setParameter("after", after == null ? Long.MIN_VALUE : after)
+				.setMaxResults(limit)
+				.getResultList();
+		
+		List<Concert> concerts = new ArrayList<Concert>();
+		if(!ids.isEmpty()) {
+			concerts = em.createQuery("select distinct c from Concert c "
+							+ "where c._id in :ids order by c._id", Concert.class)
+					.setParameter("ids", ids)
+					.setHint(LOAD_GRAPH, em.getEntityGraph(Concert.CATALOG_GRAPH))
+					.setHint(QueryHints.PASS_DISTINCT_THROUGH, false)
+					.getResultList();
+		}
+		
+		GenericEntity<List<ConcertDTO>> entity = new GenericEntity<List<ConcertDTO>>(DomainMapper.concertPageToDTO(concerts)){};
+		return pageResponse(entity, ids.size() == limit ? ids.get(ids.size() - 1) : null);
+	}
 
-		// Use the EntityManager to retrieve all Performers.
-		TypedQuery<Performer> performerQuery = em.createQuery("select p from Performer p", Performer.class);
-		List<Performer> performers = performerQuery.getResultList();
+	private List<Concert> findConcerts() {
+		// Acquire the request's EntityManager, which has a transaction started.
+		EntityManager em = PersistenceManager.instance().getRequestEntityManager();
 
-		// Return all the performers
-		GenericEntity<Set<PerformerDTO>> entity = new GenericEntity<Set<PerformerDTO>>(DomainMapper.performersToDTO(performers)){};
-		builder = Response.ok(entity);
+		// Use the EntityManager to retrieve all Concerts, with their collections in
+		// the same query. The query's result and the Concerts' collections come from
+		// the second-level cache after the first call.
+		TypedQuery<Concert> concertQuery = em.createQuery("select distinct c from Concert c", Concert.class)
+				.setHint(LOAD_GRAPH, em.getEntityGraph(Concert.CATALOG_GRAPH))
+				.setHint(QueryHints.PASS_DISTINCT_THROUGH, false)
+				.setHint(QueryHints.CACHEABLE, true)
+				.setHint(QueryHints.CACHE_REGION, CATALOG_CACHE_REGION);
+		return concertQuery.getResultList();
+	}
+
+	private List<Performer> findPerformers() {
+		// Acquire the request's EntityManager, which has a transaction started.
+		EntityManager em = PersistenceManager.instance().getRequestEntityManager();
 
+		// Use the EntityManager to retrieve all Performers with their Concerts, from 
+		// the second-level cache after the first call.
+		TypedQuery<Performer> performerQuery = em.createQuery("select distinct p from Performer p", Performer.class)
+				.setHint(LOAD_GRAPH, em.getEntityGraph(Performer.CATALOG_GRAPH))
+				.setHint(QueryHints.PASS_DISTINCT_THROUGH, false)
+				.setHint(QueryHints.CACHEABLE, true)
+				.setHint(QueryHints.CACHE_REGION, CATALOG_CACHE_REGION);
+		return performerQuery.getResultList();
+	}
+
+	/**
+	 * Returns a page of a paged listing, with the cursor of the next page if 
+	 * there may be one.
+	 */
+	private Response pageResponse(GenericEntity<?> page, Long next) {
+		ResponseBuilder builder = Response.ok(page);
+		if(next != null) {
+			builder.header(Config.NEXT_CURSOR_HEADER, next);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Responds with 400 (Bad Request) if a page limit isn't positive, and 
+	 * reduces it to MAX_PAGE_SIZE if it's larger.
+	 */
+	private int checkLimit(int limit) {
+		if(limit <= 0) {
+			throw new BadRequestException(Response.status(Status.BAD_REQUEST).entity(Messages.INVALID_PAGE_LIMIT).build());
+		}
+		return Math.min(limit, MAX_PAGE_SIZE);
+	}
+
+	/**
+	 * Returns 304 (Not Modified) if the request's preconditions match the 
+	 * snapshot's entity tag, otherwise the snapshot's content with its tag.
+	 */
+	private Response snapshotResponse(Request request, Snapshot snapshot) {
+		ResponseBuilder builder = request.evaluatePreconditions(snapshot.getEntityTag());
+		if (builder == null) {
+			builder = Response.ok(snapshot.getContent(), MediaType.APPLICATION_XML_TYPE)
+					.tag(snapshot.getEntityTag());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Marshals an entity to XML with the application's message body writer, 
+	 * the same way RESTEasy would marshal it as a response.
+	 */
+	private <T> byte[] serialise(Providers providers, GenericEntity<T> entity) {
+		@SuppressWarnings("unchecked")
+		Class<T> type = (Class<T>) entity.getRawType();
+		MessageBodyWriter<T> writer = providers.getMessageBodyWriter(type, entity.getType(),
+				new Annotation[0], MediaType.APPLICATION_XML_TYPE);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			writer.writeTo(entity.getEntity(), type, entity.getType(), new Annotation[0],
+					MediaType.APPLICATION_XML_TYPE, new MultivaluedHashMap<String, Object>(), out);
+		} catch (IOException e) {
+			throw new InternalServerErrorException(e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Retrieves the number of seats left in each price band for a concert on
+	 * a given date. The counts come from the in-memory seat inventory, so no
+	 * Bookings are queried or locked.
+	 * 
+	 * @return a Response object containing the seat availability.
+	 */
+	@GET
+	@Path("/{id}/availability")
+	@Produces(javax.ws.rs.core.MediaType.APPLICATION_XML)
+	public Response retrieveAvailability(@PathParam("id") Long id, @QueryParam("date") String date) {
+		ResponseBuilder builder = null;
+		
+		LocalDateTime dateTime = parseDate(date, Messages.CONCERT_NOT_SCHEDULED_ON_AVAILABILITY_DATE);
+		PerformanceInventory performance = findPerformance(id, dateTime, Messages.CONCERT_NOT_SCHEDULED_ON_AVAILABILITY_DATE);
+		
+		builder = Response.ok(new AvailabilityDTO(id, dateTime, performance.getAvailability()));
+		
+		return builder.build();
+	}
+	
+	/**
+	 * Retrieves the seat map of a concert on a given date, with one bit for
+	 * each seat that is reserved or booked. When the version of a seat map
+	 * the client already has is given, only the seats that have changed since
+	 * that version are returned, and 304 (Not Modified) if there are none. A
+	 * complete map is returned if the changes are no longer known.
+	 * 
+	 * @return a Response object containing the seat map.
+	 */
+	@GET
+	@Path("/{id}/seatmap")
+	@Produces(javax.ws.rs.core.MediaType.APPLICATION_XML)
+	public Response retrieveSeatMap(@PathParam("id") Long id, @QueryParam("date") String date, @QueryParam("since") Long since) {
+		ResponseBuilder builder = null;
+		
+		LocalDateTime dateTime = parseDate(date, Messages.CONCERT_NOT_SCHEDULED_ON_SEAT_MAP_DATE);
+		PerformanceInventory performance = findPerformance(id, dateTime, Messages.CONCERT_NOT_SCHEDULED_ON_SEAT_MAP_DATE);
+		
+		// read the version before the seats, so the seats are at least that recent
+		performance.reclaimExpired();
+		long version = performance.getChangeLog().getVersion();
+		
+		if(since != null && since == version) {
+			builder = Response.notModified();
+			return builder.build();
+		}
+		
+		BitSet changed = (since == null ? null : performance.getChangeLog().getChanges(since, version));
+		BitSet occupied = performance.getOccupied();
+		if(changed != null) {
+			occupied.and(changed);
+		}
+		
+		builder = Response.ok(new SeatMapDTO(id, dateTime, version, occupied, changed));
+		
 		return builder.build();
 	}
 
@@ -118,10 +317,8 @@ public class ConcertResource {
 	public Response createUser(UserDTO userDTO) {
 		ResponseBuilder builder = null;
 		
-		// Acquire an EntityManager (creating a new persistence context).
-		EntityManager em = PersistenceManager.instance().createEntityManager();
-		// Start a new transaction.
-		em.getTransaction().begin();
+		// Acquire the request's EntityManager, which has a transaction started.
+		EntityManager em = PersistenceManager.instance().getRequestEntityManager();
 		
 		// user name taken
 		if(em.find(User.class, userDTO.getUsername()) != null){
@@ -132,9 +329,6 @@ public class ConcertResource {
 		// persist the created user into the database
 		User user = DomainMapper.userToDomainModel(userDTO);
 		em.persist(user);
-		
-		// Commit the transaction.
-		em.getTransaction().commit();
 
 		// return the UserDTO
 		builder = Response.ok(DomainMapper.userToDTO(user));
@@ -156,10 +350,8 @@ public class ConcertResource {
 	public Response authenticateUser(UserDTO userDTO) {
 		ResponseBuilder builder = null;
 		
-		// Acquire an EntityManager (creating a new persistence context).
-		EntityManager em = PersistenceManager.instance().createEntityManager();
-		// Start a new transaction.
-		em.getTransaction().begin();
+		// Acquire the request's EntityManager, which has a transaction started.
+		EntityManager em = PersistenceManager.instance().getRequestEntityManager();
 		
 		User user = em.find(User.class, userDTO.getUsername());
 		
@@ -190,24 +382,16 @@ public class ConcertResource {
 	public Response registerCreditCard(CreditCardDTO creditCardDTO, @CookieParam(Config.CLIENT_COOKIE) String token) {
 		ResponseBuilder builder = null;
 		
-		// Acquire an EntityManager (creating a new persistence context).
-		EntityManager em = PersistenceManager.instance().createEntityManager();
-		// Start a new transaction.
-		em.getTransaction().begin();
+		// Acquire the request's EntityManager, which has a transaction started.
+		EntityManager em = PersistenceManager.instance().getRequestEntityManager();
 		
-		// check if authentication token exists in database
-		AuthenticationToken authenticationToken = em.find(AuthenticationToken.class, token);
-		handlePossibleUnrecognisedToken(authenticationToken);
-		// then returns the associated user
-		User user = authenticationToken.getUser();
+		// check if authentication token is recognised, then find the associated user
+		User user = em.find(User.class, authenticate(token));
 		
 		// token identifies a user, so proceed to adding credit card information to user 
 		CreditCard creditCard = DomainMapper.creditCardToDomainModel(creditCardDTO);
 		user.addCreditCard(creditCard);
 		
-		// Commit the transaction.
-		em.getTransaction().commit();
-		
 		builder = Response.status(Status.NO_CONTENT);
 		
 		return builder.build();
@@ -215,44 +399,64 @@ public class ConcertResource {
 	
 	
 	/**
-	 * Retrieves all Bookings of a user
+	 * Retrieves all Bookings of a user, or a page of them if a limit is given 
+	 * (see retrieveConcerts)
 	 * 
-	 * @return a Response object containing all the user's Bookings.
+	 * @return a Response object containing all the user's Bookings, or a page
+	 * of them.
 	 */
 	@GET
 	@Path("/bookings")
 	@Produces(javax.ws.rs.core.MediaType.APPLICATION_XML)
-	public Response retrieveBookings(@CookieParam(Config.CLIENT_COOKIE) String token) {
+	public Response retrieveBookings(@CookieParam(Config.CLIENT_COOKIE) String token,
+			@QueryParam("limit") Integer limit, @QueryParam("after") Long after) {
 		ResponseBuilder builder = null;
 		
-		// Acquire an EntityManager (creating a new persistence context).
-		EntityManager em = PersistenceManager.instance().createEntityManager();
-		// Start a new transaction.
-		em.getTransaction().begin();
-		
-		// check if authentication token exists in database
-		AuthenticationToken authenticationToken = em.find(AuthenticationToken.class, token);
-		handlePossibleUnrecognisedToken(authenticationToken);
-		// then returns the associated user
-		User user = authenticationToken.getUser();
-		
+		// check if authentication token is recognised, which only needs the
+		// database if it isn't cached
+		String username = authenticate(token);
 		
-		// Use the EntityManager to retrieve all Bookings with the same username.
-		TypedQuery<Booking> bookingQuery = 
-				em.createQuery("select b from Booking b "
-						+ "left join fetch b._seats "
-						+ "where b._user._username = :username", Booking.class)
-				.setParameter("username", user.getUsername());
-		List<Booking> bookings = bookingQuery.getResultList();
-		
-		// Return the list of bookings
-		GenericEntity<Set<BookingDTO>> entity = new GenericEntity<Set<BookingDTO>>(DomainMapper.bookingsToDTO(bookings)){};
+		if(limit != null) {
+			return retrieveBookingPage(username, checkLimit(limit), after);
+		}
 		
-		builder = Response.ok(entity);
+		// Stream all Bookings with the same username as they are read, leaving 
+		// out expired reservations that haven't been swept yet. Only the 
+		// columns of BookingDTO are selected, so no entities are loaded.
+		LocalDateTime now = LocalDateTime.now();
+		StreamingOutput bookings = new CollectionStream<BookingDTO>(BookingDTO.class,
+				bookingEm -> bookingEm.createQuery(DomainMapper.BOOKING_PROJECTION
+						+ "where b._user._username = :username "
+						+ "and (b._confirmed = true or b._expiresAt > :now)", Object[].class)
+				.setParameter("username", username)
+				.setParameter("now", now),
+				DomainMapper::bookingRowToDTO);
+		
+		// Return the bookings as they are written
+		builder = Response.ok(bookings, MediaType.APPLICATION_XML);
 
 		return builder.build();
 	}
 	
+	private Response retrieveBookingPage(String username, int limit, Long after) {
+		EntityManager em = PersistenceManager.instance().getRequestEntityManager();
+		
+		// Restarts from the cursor rather than an offset, so later pages cost 
+		// no more than the first (the user's rows are found by BOOKING_USER)
+		List<Object[]> bookings = em.createQuery(DomainMapper.BOOKING_PROJECTION
+						+ "where b._user._username = :username "
+						+ "and (b._confirmed = true or b._expiresAt > :now) "
+						+ "and b._id > :after order by b._id", Object[].class)
+				.setParameter("username", username)
+				.setParameter("now", LocalDateTime.now())
+				.setParameter("after", after == null ? Long.MIN_VALUE : after)
+				.setMaxResults(limit)
+				.getResultList();
+		
+		GenericEntity<List<BookingDTO>> entity = new GenericEntity<List<BookingDTO>>(DomainMapper.bookingPageToDTO(bookings)){};
+		return pageResponse(entity, bookings.size() == limit ? (Long) bookings.get(bookings.size() - 1)[DomainMapper.BOOKING_ID_COLUMN] : null);
+	}
+	
 	
 	/**
 	 * Reserves seats in a concert after checking for availability
@@ -264,117 +468,209 @@ public class ConcertResource {
 	@Consumes(javax.ws.rs.core.MediaType.APPLICATION_XML)
 	public Response reserveSeats(ReservationRequestDTO reservationRequestDTO, @CookieParam(Config.CLIENT_COOKIE) String token) {
 		ResponseBuilder builder = null;
+		String username;
 
-		// Acquire an EntityManager (creating a new persistence context).
+		// Acquire an EntityManager (creating a new persistence context) of its own,
+		// closed (releasing its connection) before the remaining work happens on
+		// the performance's partition. The request's EntityManager isn't used.
 		EntityManager em = PersistenceManager.instance().createEntityManager();
-		// Start a new transaction.
-		em.getTransaction().begin();
-		
-		// check if authentication token exists in database
-		AuthenticationToken authenticationToken = em.find(AuthenticationToken.class, token);
-		handlePossibleUnrecognisedToken(authenticationToken);
-		// then returns the associated user
-		User user = authenticationToken.getUser();
-		
-		// Get the Concert
-		Concert concert = em.find(Concert.class, reservationRequestDTO.getConcertId());
+		try {
+			// Start a new transaction.
+			em.getTransaction().begin();
 
-		// if concert not on that date or concert doesn't exist
-		if((concert == null) || (! concert.getDates().contains(reservationRequestDTO.getDate()))){
-			builder = Response.status(Status.BAD_REQUEST).entity(Messages.CONCERT_NOT_SCHEDULED_ON_RESERVATION_DATE);
-			throw new BadRequestException(builder.build());
-		}
-		
-		// Concert, date and price brand classification is used to narrow down the 
-		// number of locks to only those of the same price brand
-		// Use the EntityManager to retrieve all Bookings with the same user name.
-		TypedQuery<Booking> bookingQuery = 
-				em.createQuery("select b from Booking b "
-						+ "left join fetch b._seats "
-						+ "where "
-						+ "b._concert._id = :id "
-						+ "and "
-						+ "b._dateTime = :date "
-					    + "and "
-						+ "b._priceBand = :type"
-						, Booking.class)
-				.setLockMode(LockModeType.PESSIMISTIC_WRITE)
-				.setHint("javax.persistence.lock.timeout", LOCK_TIMEOUT_MILLISECONDS)
-				.setParameter("id", reservationRequestDTO.getConcertId())
-				.setParameter("date", reservationRequestDTO.getDate())
-				.setParameter("type", reservationRequestDTO.getSeatType())
-				;
-		
-		List<Booking> bookings = bookingQuery.getResultList();		
-		
-		// get all booked seats
-		Set<SeatDTO> bookedSeats = new HashSet<SeatDTO>();
-		for(Booking b : bookings){
-			bookedSeats.addAll(DomainMapper.seatsToDTO(b.getSeats()));
+			// check if authentication token is recognised, which only needs the
+			// database if it isn't cached
+			username = authenticate(em, token);
+
+			// Get the Concert
+			Concert concert = em.find(Concert.class, reservationRequestDTO.getConcertId());
+
+			// if concert not on that date or concert doesn't exist
+			if((concert == null) || (! concert.getDates().contains(reservationRequestDTO.getDate()))){
+				builder = Response.status(Status.BAD_REQUEST).entity(Messages.CONCERT_NOT_SCHEDULED_ON_RESERVATION_DATE);
+				throw new BadRequestException(builder.build());
+			}
+
+			// Commit the transaction
+			em.getTransaction().commit();
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
 		}
-		
-		// randomly select seats for reservation
-		Set<SeatDTO> reservationSeatDTOS = 
-				TheatreUtility.findAvailableSeats(reservationRequestDTO.getNumberOfSeats(), 
-						reservationRequestDTO.getSeatType(), bookedSeats);
-		
-		// Stores the unconfirmed Booking
+
 		Booking unconfirmedBooking;
-		
-		// if seats are returned, searching for seats has been successful
-		if(reservationSeatDTOS.size() != 0){
-			unconfirmedBooking = new Booking(concert,
-					reservationRequestDTO.getDate(), DomainMapper.seatsToDomainModel(reservationSeatDTOS), 
-					reservationRequestDTO.getSeatType(), user);
-			
-			// persist the unconfirmed Booking
-			em.persist(unconfirmedBooking);
-			
-			// Commit the transaction and get rid of locks
-			em.getTransaction().commit();
+		if(ReservationEngine.isSeatHoldMode()){
+			// Seats are held by unique rows in the database, which settles any conflict
+			unconfirmedBooking = makeReservation(reservationRequestDTO, username);
 		} else {
-			// Commit the transaction and get rid of locks
-			em.getTransaction().commit();
-			// insufficient seats
-			builder = Response.status(Status.BAD_REQUEST).entity(Messages.INSUFFICIENT_SEATS_AVAILABLE_FOR_RESERVATION);
-			throw new BadRequestException(builder.build());
+			// Seats are picked and the unconfirmed Booking is inserted by the single
+			// thread that owns the concert on that date, so nothing has to be locked
+			PerformanceKey key = new PerformanceKey(reservationRequestDTO.getConcertId(), reservationRequestDTO.getDate());
+			unconfirmedBooking = ReservationEngine.instance().submit(key, () -> 
+					makeReservation(reservationRequestDTO, username));
 		}
+		Set<SeatDTO> reservationSeatDTOS = DomainMapper.seatsToDTO(unconfirmedBooking.getSeats());
 		
 		// prepare to return reservation
 		builder = Response.ok(new ReservationDTO(unconfirmedBooking.getId(), reservationRequestDTO, reservationSeatDTOS));
+				
+		return builder.build();
+	}
+	
+	/**
+	 * Picks seats for a reservation request and stores them as an unconfirmed
+	 * Booking. Unless in seat hold mode, this must run on the ReservationEngine
+	 * partition of the concert and date, which serialises it with other 
+	 * reservations for them. In seat hold mode, a reservation whose seats turn 
+	 * out to be held already is retried with other seats.
+	 * 
+	 * @return the persisted Booking.
+	 */
+	private Booking makeReservation(ReservationRequestDTO reservationRequestDTO, String username) {
+		boolean seatHolds = ReservationEngine.isSeatHoldMode();
 		
-		// close entity manager
-		em.close();
+		for(int attempt = 1; ; attempt++){
+			ResponseBuilder builder = null;
+			
+			// Acquire an EntityManager (creating a new persistence context).
+			EntityManager em = PersistenceManager.instance().createEntityManager();
+			try {
+				// Start a new transaction.
+				em.getTransaction().begin();
 				
-		// Run a separate thread to remove the booking if still unconfirmed at expiry time
-		new Thread(){
-			public void run(){
-				// wait till expiry time
-				try {
-					Thread.sleep(ConcertApplication.RESERVATION_EXPIRY_TIME_IN_SECONDS*1000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+				// The in-memory inventory of the concert on that date is loaded from the
+				// Booking table on first use and kept up to date afterwards, so the
+				// booked seats don't have to be queried (and locked) on each request
+				PerformanceInventory performance = SeatInventory.instance().getPerformance(em,
+						reservationRequestDTO.getConcertId(), reservationRequestDTO.getDate());
+				
+				// select seats for reservation using the requested strategy, marking them as held
+				Set<SeatDTO> reservationSeatDTOS = performance.reserve(reservationRequestDTO.getSeatType(),
+						reservationRequestDTO.getNumberOfSeats(), reservationRequestDTO.getAllocation());
+				
+				// insufficient seats
+				if(reservationSeatDTOS.size() == 0){
+					em.getTransaction().commit();
+					builder = Response.status(Status.BAD_REQUEST).entity(Messages.INSUFFICIENT_SEATS_AVAILABLE_FOR_RESERVATION);
+					throw new BadRequestException(builder.build());
 				}
 				
-				// Acquire an EntityManager (creating a new persistence context).
-				EntityManager em = PersistenceManager.instance().createEntityManager();
-				// Start a new transaction.
-				em.getTransaction().begin();				
-				em.setProperty("javax.persistence.lock.timeout", LOCK_TIMEOUT_MILLISECONDS);
-				Booking bookingToConfirm = em.find(Booking.class, unconfirmedBooking.getId(), LockModeType.PESSIMISTIC_WRITE);
-				// remove booking if still unconfirmed AND 
-				if(bookingToConfirm != null && bookingToConfirm.getConfirmationStatus() == false){
-					em.remove(bookingToConfirm);
+				Booking unconfirmedBooking = new Booking(em.find(Concert.class, reservationRequestDTO.getConcertId()),
+						reservationRequestDTO.getDate(), DomainMapper.seatsToDomainModel(reservationSeatDTOS),
+						reservationRequestDTO.getSeatType(), em.find(User.class, username),
+						LocalDateTime.now().plusSeconds(ConcertApplication.RESERVATION_EXPIRY_TIME_IN_SECONDS));
+				if(seatHolds){
+					unconfirmedBooking.holdSeats();
+				}
+				
+				boolean held = false;
+				try {
+					// persist the unconfirmed Booking, which assigns its id
+					em.persist(unconfirmedBooking);
+					
+					// the seats are held until the reservation is confirmed or expires. The
+					// hold is journalled before the Booking is committed, so a restart in
+					// between can't free seats that the Booking has
+					performance.hold(unconfirmedBooking);
+					held = true;
+					
+					// Commit the transaction
+					em.getTransaction().commit();
+				} catch(PersistenceException e) {
+					if(seatHolds && isConstraintViolation(e)){
+						// some of the seats are held by another booking, try again with others
+						resyncHeldSeats(performance, unconfirmedBooking, held);
+						if(attempt < ReservationEngine.SEAT_HOLD_ATTEMPTS){
+							continue;
+						}
+						// the seats kept being taken by other reservations
+						builder = Response.status(Status.BAD_REQUEST).entity(Messages.INSUFFICIENT_SEATS_AVAILABLE_FOR_RESERVATION);
+						throw new BadRequestException(builder.build());
+					} else {
+						// the seats were never booked, so put them back
+						returnSeats(performance, unconfirmedBooking, held);
+					}
+					throw e;
+				} catch(RuntimeException e) {
+					// the seats were never booked, so put them back
+					returnSeats(performance, unconfirmedBooking, held);
+					throw e;
 				}
 				
-				// Commit the transaction and get rid of locks
-				em.getTransaction().commit();
+				return unconfirmedBooking;
+			} finally {
+				if(em.getTransaction().isActive()){
+					em.getTransaction().rollback();
+				}
 				em.close();
 			}
-		}.start();
+		}
+	}
+	
+	/**
+	 * After a reservation in seat hold mode has failed on the unique key of 
+	 * the SeatHolds, returns its seats and discards the performance's 
+	 * inventory, so that the next attempt loads it from the Booking table. 
+	 * The seats held by bookings made elsewhere (e.g. by other nodes sharing 
+	 * the database) are then occupied until those bookings expire, like any 
+	 * other, rather than staying occupied in this node's inventory for good.
+	 */
+	private void resyncHeldSeats(PerformanceInventory performance, Booking failedBooking, boolean held) {
+		// Acquire an EntityManager (creating a new persistence context), outside
+		// of the reservation's failed transaction.
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		try {
+			// Start a new transaction.
+			em.getTransaction().begin();
+			
+			// holds of expired reservations that haven't been swept yet don't count
+			em.createQuery("delete from SeatHold h where h._booking._id in "
+					+ "(select b._id from Booking b where b._confirmed = false and b._expiresAt <= :now "
+					+ "and b._concert._id = :id and b._dateTime = :date)")
+					.setParameter("now", LocalDateTime.now())
+					.setParameter("id", failedBooking.getConcertId())
+					.setParameter("date", failedBooking.getDateTime())
+					.executeUpdate();
+			
+			em.getTransaction().commit();
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
 		
-		// return the reservation after starting the separate thread
-		return builder.build();
+		returnSeats(performance, failedBooking, held);
+		SeatInventory.instance().evict(failedBooking.getConcertId(), failedBooking.getDateTime());
+		
+		_logger.info("Seat hold conflict, reloading the seat inventory and retrying reservation");
+	}
+	
+	/**
+	 * Returns seats of a reservation whose Booking couldn't be committed to 
+	 * the inventory, withdrawing its hold (which journals the cancellation) 
+	 * if it was recorded.
+	 */
+	private void returnSeats(PerformanceInventory performance, Booking failedBooking, boolean held) {
+		if(held){
+			performance.withdraw(failedBooking);
+		} else {
+			performance.release(failedBooking.getPriceBand(), failedBooking.getSeats());
+		}
+	}
+	
+	/**
+	 * Checks if a persistence failure was caused by a violated constraint
+	 */
+	private boolean isConstraintViolation(PersistenceException e) {
+		for(Throwable cause = e; cause != null; cause = cause.getCause()){
+			if(cause instanceof ConstraintViolationException){
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	/**
@@ -385,50 +681,109 @@ public class ConcertResource {
 	@Consumes(javax.ws.rs.core.MediaType.APPLICATION_XML)
 	public Response confirmReservation(ReservationDTO reservationDTO, @CookieParam(Config.CLIENT_COOKIE) String token) {
 		ResponseBuilder builder = null;
-		
-		// Acquire an EntityManager (creating a new persistence context).
+
+		// Acquire an EntityManager (creating a new persistence context) of its own,
+		// since whether its changes are committed is decided here rather than by
+		// the response status. The request's EntityManager isn't used.
 		EntityManager em = PersistenceManager.instance().createEntityManager();
-		// Start a new transaction.
-		em.getTransaction().begin();
-		
-		// check if authentication token exists in database
-		AuthenticationToken authenticationToken = em.find(AuthenticationToken.class, token);
-		handlePossibleUnrecognisedToken(authenticationToken);
-		// then returns the associated user
-		User user = authenticationToken.getUser();
-				
-		em.setProperty("javax.persistence.lock.timeout", LOCK_TIMEOUT_MILLISECONDS);
-		Booking bookingToConfirm = em.find(Booking.class, reservationDTO.getId(), LockModeType.PESSIMISTIC_WRITE);
-		
-		if(user.getCreditCards().size() == 0){
-			
-			// delete booking if it still exists and if credit card is not registered
-			if(bookingToConfirm != null && bookingToConfirm.getUser().equals(user)){
-				em.remove(bookingToConfirm);
-			} 
-			
-			// commit and release locks
-			em.getTransaction().commit();
-			
-			builder = Response.status(Status.BAD_REQUEST).entity(Messages.CREDIT_CARD_NOT_REGISTERED);
-			throw new BadRequestException(builder.build());
-		}
-		
-		// if booking associated with the user cannot be found, that means the booking has expired
-		if(bookingToConfirm == null || !bookingToConfirm.getUser().equals(user)){
-			em.getTransaction().commit();
-			builder = Response.status(Status.BAD_REQUEST).entity(Messages.EXPIRED_RESERVATION);
-			throw new BadRequestException(builder.build());			
-		} else {
-			bookingToConfirm.setConfirmed();
+		// the Booking whose seats the inventory has confirmed, once it has
+		Booking confirmedBooking = null;
+		try {
+			// Start a new transaction.
+			em.getTransaction().begin();
+
+			// check if authentication token is recognised, then find the associated user
+			User user = em.find(User.class, authenticate(em, token));
+
+			em.setProperty("javax.persistence.lock.timeout", LOCK_TIMEOUT_MILLISECONDS);
+			// lock the Booking's row on its own, since H2 with MVCC can't lock rows
+			// of a join, then reread the Booking now that no one else can change it
+			Booking bookingToConfirm = em.find(Booking.class, reservationDTO.getId());
+			if(bookingToConfirm != null){
+				em.lock(bookingToConfirm, LockModeType.PESSIMISTIC_WRITE);
+				em.refresh(bookingToConfirm);
+			}
+
+			if(user.getCreditCards().size() == 0){
+
+				// delete booking if it still exists and if credit card is not registered
+				if(bookingToConfirm != null && bookingToConfirm.getUser().equals(user)){
+					em.remove(bookingToConfirm);
+
+					// commit and release locks
+					em.getTransaction().commit();
+					SeatInventory.instance().release(bookingToConfirm);
+				}
+
+				builder = Response.status(Status.BAD_REQUEST).entity(Messages.CREDIT_CARD_NOT_REGISTERED);
+				throw new BadRequestException(builder.build());
+			}
+
+			// if booking associated with the user cannot be found, that means the booking has expired
+			if(bookingToConfirm == null || !bookingToConfirm.getUser().equals(user)){
+				builder = Response.status(Status.BAD_REQUEST).entity(Messages.EXPIRED_RESERVATION);
+				throw new BadRequestException(builder.build());
+			} else if(!bookingToConfirm.getConfirmationStatus()){
+				// an expired booking may still be in the database, but its seats are
+				// free and may have been reserved again, so it can't be confirmed
+				if(!bookingToConfirm.getExpiresAt().isAfter(LocalDateTime.now())
+						|| !SeatInventory.instance().confirm(bookingToConfirm)){
+					builder = Response.status(Status.BAD_REQUEST).entity(Messages.EXPIRED_RESERVATION);
+					throw new BadRequestException(builder.build());
+				}
+				confirmedBooking = bookingToConfirm;
+				bookingToConfirm.setConfirmed();
+			}
+
+			// Commit the transaction
 			em.getTransaction().commit();
+		} catch(RuntimeException e) {
+			// the confirmation was journalled first, so that a restart can't free
+			// the seats of a confirmed Booking, and is reverted if it isn't committed
+			if(confirmedBooking != null){
+				SeatInventory.instance().unconfirm(confirmedBooking);
+			}
+			throw e;
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
 		}
-		
+
 		builder = Response.status(Status.NO_CONTENT);
 		
 		return builder.build();
 	}
 
+	/**
+	 * Returns the username of the user an authentication token is associated
+	 * with. Recently used tokens are found in the AuthenticationTokenCache, 
+	 * others in the database (and then cached).
+	 */
+	private String authenticate(String token){
+		return authenticate(null, token);
+	}
+
+	/**
+	 * Authenticates a token as authenticate(String) does, looking it up with
+	 * the given EntityManager rather than the request's if it isn't cached.
+	 */
+	private String authenticate(EntityManager em, String token){
+		String username = AuthenticationTokenCache.instance().get(token);
+		if(username == null){
+			if(em == null){
+				em = PersistenceManager.instance().getRequestEntityManager();
+			}
+			AuthenticationToken authenticationToken = em.find(AuthenticationToken.class, token);
+			handlePossibleUnrecognisedToken(authenticationToken);
+			
+			username = authenticationToken.getUser().getUsername();
+			AuthenticationTokenCache.instance().put(token, username);
+		}
+		return username;
+	}
+	
 	/**
 	 * BAD_AUTHENTICATON_TOKEN
 	 * Check if authentication token is recognised (associated with a user) and 
@@ -440,16 +795,51 @@ public class ConcertResource {
 		}
 	}
 	
+	/**
+	 * Parses a date/time query parameter, responding with 400 (Bad Request)
+	 * and the given message if it's missing or malformed
+	 */
+	private LocalDateTime parseDate(String date, String message){
+		try {
+			return LocalDateTime.parse(date);
+		} catch(NullPointerException | DateTimeParseException e) {
+			throw new BadRequestException(Response.status(Status.BAD_REQUEST).entity(message).build());
+		}
+	}
+	
+	/**
+	 * Returns the seat inventory of a concert on a given date, responding with
+	 * 400 (Bad Request) and the given message if the concert isn't scheduled 
+	 * then. The database is only used if the inventory isn't loaded yet.
+	 */
+	private PerformanceInventory findPerformance(Long id, LocalDateTime dateTime, String message){
+		PerformanceInventory performance = SeatInventory.instance().getLoadedPerformance(id, dateTime);
+		if(performance != null) {
+			return performance;
+		}
+		
+		// Acquire the request's EntityManager, which has a transaction started.
+		EntityManager em = PersistenceManager.instance().getRequestEntityManager();
+		
+		// if concert not on that date or concert doesn't exist
+		Concert concert = em.find(Concert.class, id);
+		if((concert == null) || (! concert.getDates().contains(dateTime))){
+			throw new BadRequestException(Response.status(Status.BAD_REQUEST).entity(message).build());
+		}
+		
+		performance = SeatInventory.instance().getPerformance(em, id, dateTime);
+		
+		return performance;
+	}
+	
 	/**
 	 * Make a new token (cookie) for a specific user
 	 */
 	private NewCookie makeToken(User user){
 		NewCookie newCookie = null;
 		
-		// Acquire an EntityManager (creating a new persistence context).
-		EntityManager em = PersistenceManager.instance().createEntityManager();
-		// Start a new transaction.
-		em.getTransaction().begin();
+		// Acquire the request's EntityManager, which has a transaction started.
+		EntityManager em = PersistenceManager.instance().getRequestEntityManager();
 		// Try to find if there is already a token associated with the user
 		List<AuthenticationToken> tokens = 
 				em.createQuery("select a from AuthenticationToken a where a._user = :user", AuthenticationToken.class)
@@ -467,9 +857,6 @@ public class ConcertResource {
 			token = tokens.get(0);
 		}
 		
-		em.getTransaction().commit();
-		em.close();
-		
 		newCookie = new NewCookie(Config.CLIENT_COOKIE, token.getValue());
 		_logger.info("Generated cookie: " + newCookie.getValue());
 		
@@ -0,0 +1,95 @@
+package nz.ac.auckland.concert.service.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zaxxer.hikari.metrics.MetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Collects the metrics of the HikariCP connection pool that backs the
+ * persistence unit: how long threads wait to acquire a connection, how many
+ * acquisitions timed out, and the number of active, idle and total
+ * connections along with the number of threads waiting for one.
+ *
+ * HikariCP calls the tracker on every connection acquisition, so recording
+ * only updates a few atomic counters.
+ *
+ */
+public class ConnectionPoolMetrics implements MetricsTrackerFactory {
+
+	private final AtomicLong _acquired = new AtomicLong();
+	private final AtomicLong _acquireNanos = new AtomicLong();
+	private final AtomicLong _maxAcquireNanos = new AtomicLong();
+	private final AtomicLong _timeouts = new AtomicLong();
+
+	private volatile PoolStats _poolStats;
+
+	@Override
+	public MetricsTracker create(String poolName, PoolStats poolStats) {
+		_poolStats = poolStats;
+		return new MetricsTracker() {
+			@Override
+			public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+				_acquired.incrementAndGet();
+				_acquireNanos.addAndGet(elapsedAcquiredNanos);
+				_maxAcquireNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+			}
+
+			@Override
+			public void recordConnectionTimeout() {
+				_timeouts.incrementAndGet();
+			}
+		};
+	}
+
+	/**
+	 * Number of connections acquired from the pool
+	 */
+	public long getAcquiredCount() {
+		return _acquired.get();
+	}
+
+	/**
+	 * Mean time, in microseconds, taken to acquire a connection
+	 */
+	public long getMeanAcquireMicros() {
+		long acquired = _acquired.get();
+		return acquired == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(_acquireNanos.get() / acquired);
+	}
+
+	/**
+	 * Longest time, in microseconds, taken to acquire a connection
+	 */
+	public long getMaxAcquireMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(_maxAcquireNanos.get());
+	}
+
+	/**
+	 * Number of times no connection became available within the pool's
+	 * connection timeout
+	 */
+	public long getTimeoutCount() {
+		return _timeouts.get();
+	}
+
+	public int getActiveConnections() {
+		return _poolStats == null ? 0 : _poolStats.getActiveConnections();
+	}
+
+	public int getIdleConnections() {
+		return _poolStats == null ? 0 : _poolStats.getIdleConnections();
+	}
+
+	public int getTotalConnections() {
+		return _poolStats == null ? 0 : _poolStats.getTotalConnections();
+	}
+
+	/**
+	 * Number of threads waiting for a connection
+	 */
+	public int getPendingThreads() {
+		return _poolStats == null ? 0 : _poolStats.getPendingThreads();
+	}
+}
@@ -1,5 +1,7 @@
 package nz.ac.auckland.concert.service.services;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -13,6 +15,8 @@ import nz.ac.auckland.concert.common.dto.ReservationDTO;
 import nz.ac.auckland.concert.common.dto.ReservationRequestDTO;
 import nz.ac.auckland.concert.common.dto.SeatDTO;
 import nz.ac.auckland.concert.common.dto.UserDTO;
+import nz.ac.auckland.concert.common.types.PriceBand;
+import nz.ac.auckland.concert.common.util.TheatreLayout;
 import nz.ac.auckland.concert.service.domain.Booking;
 import nz.ac.auckland.concert.service.domain.Concert;
 import nz.ac.auckland.concert.service.domain.CreditCard;
@@ -20,12 +24,27 @@ import nz.ac.auckland.concert.service.domain.NewsItem;
 import nz.ac.auckland.concert.service.domain.Performer;
 import nz.ac.auckland.concert.service.domain.Seat;
 import nz.ac.auckland.concert.service.domain.User;
+import nz.ac.auckland.concert.service.util.SeatCatalog;
 
 /**
  * Helper class to convert between domain-model and DTO objects.
  *
  */
 public class DomainMapper {
+	/**
+	 * Select clause of queries that retrieve bookings as rows for 
+	 * bookingRowToDTO, rather than as entities. The rows hold only the 
+	 * columns a BookingDTO needs (and the booking's id), so no Booking or 
+	 * Concert is hydrated or kept in the persistence context.
+	 */
+	public static final String BOOKING_PROJECTION = "select c._id, c._title, b._dateTime, b._seats, "
+			+ "b._priceBand, b._id from Booking b join b._concert c ";
+	
+	/**
+	 * Index of the booking's id in BOOKING_PROJECTION rows
+	 */
+	public static final int BOOKING_ID_COLUMN = 5;
+	
 	static ConcertDTO concertToDTO(Concert concert){
 		return new ConcertDTO(concert.getId(), concert.getTitle(), 
 				concert.getDates(), concert.getTariff(), concert.getPerformerIds());
@@ -39,6 +58,14 @@ public class DomainMapper {
 		return concertDTOs;
 	}
 	
+	static List<ConcertDTO> concertPageToDTO(List<Concert> concerts){
+		List<ConcertDTO> concertDTOs = new ArrayList<ConcertDTO>();
+		for(Concert c : concerts){
+			concertDTOs.add(concertToDTO(c));
+		}
+		return concertDTOs;
+	}
+	
 	static PerformerDTO performerToDTO(Performer performer){
 		return new PerformerDTO(performer.getId(), performer.getName(), 
 				performer.getImageName(),performer.getGenre(), performer.getConcertIds());
@@ -82,12 +109,26 @@ public class DomainMapper {
 		return bookingDTOs;
 	}
 	
+	static List<BookingDTO> bookingPageToDTO(List<Object[]> rows){
+		List<BookingDTO> bookingDTOs = new ArrayList<BookingDTO>();
+		for(Object[] row : rows){
+			bookingDTOs.add(bookingRowToDTO(row));
+		}
+		return bookingDTOs;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static BookingDTO bookingRowToDTO(Object[] row){
+		return new BookingDTO((Long) row[0], (String) row[1], (LocalDateTime) row[2], 
+				seatsToDTO((Set<Seat>) row[3]), (PriceBand) row[4]);
+	}
+	
 	static SeatDTO seatToDTO(Seat seat){
-		return new SeatDTO(seat.getRow(), seat.getNumber());
+		return TheatreLayout.getSeat(seat.getRow(), seat.getNumber().intValue());
 	}
 	
 	static Seat seatToDomainModel(SeatDTO seat){
-		return new Seat(seat.getRow(), seat.getNumber());
+		return SeatCatalog.getSeat(seat.getRow(), seat.getNumber().intValue());
 	}
 	
 	static Set<SeatDTO> seatsToDTO(Set<Seat> seats){
@@ -0,0 +1,36 @@
+package nz.ac.auckland.concert.service.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Hibernate session listener that counts the EntityManagers (Hibernate
+ * sessions) that are currently open. Hibernate creates one listener when a
+ * session is opened and calls end() when it is closed, so the count covers
+ * every EntityManager, however it was acquired. A count that keeps growing
+ * means EntityManagers are not being closed.
+ *
+ * The listener is registered in persistence.xml through the
+ * hibernate.session.events.auto property.
+ *
+ */
+public class EntityManagerCounter extends BaseSessionEventListener {
+	private static final AtomicInteger _open = new AtomicInteger();
+
+	public EntityManagerCounter() {
+		_open.incrementAndGet();
+	}
+
+	@Override
+	public void end() {
+		_open.decrementAndGet();
+	}
+
+	/**
+	 * Number of EntityManagers that are open
+	 */
+	public static int getOpenCount() {
+		return _open.get();
+	}
+}
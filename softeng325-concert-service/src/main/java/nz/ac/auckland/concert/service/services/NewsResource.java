@@ -131,21 +131,32 @@ public class NewsResource {
 	@Consumes(javax.ws.rs.core.MediaType.APPLICATION_XML)
 	public void sendNewsItem(NewsItemDTO newsItemDTO){
 		_logger.info("News posted: "+newsItemDTO.getId());
-		// Acquire an EntityManager (creating a new persistence context).
-		EntityManager em = PersistenceManager.instance().createEntityManager();
-		// Start a new transaction.
-		em.getTransaction().begin();
-		// store the news item to database
-		em.persist(DomainMapper.newsItemToDomainModel(newsItemDTO));
+		List<NewsItem> newsItems;
 		
-		em.getTransaction().commit();
-
-		em.getTransaction().begin();
-
-		// get all the news items in the database
-		TypedQuery<NewsItem> newsItemQuery = 
-				em.createQuery("select n from NewsItem n", NewsItem.class);
-		List<NewsItem> newsItems = newsItemQuery.getResultList();
+		// Acquire an EntityManager (creating a new persistence context) of its own,
+		// so that the news item is committed before subscribers are sent it. The
+		// request's EntityManager isn't used.
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		try {
+			// Start a new transaction.
+			em.getTransaction().begin();
+			
+			// store the news item to database
+			em.persist(DomainMapper.newsItemToDomainModel(newsItemDTO));
+			
+			// get all the news items in the database
+			TypedQuery<NewsItem> newsItemQuery = 
+					em.createQuery("select n from NewsItem n", NewsItem.class);
+			newsItems = newsItemQuery.getResultList();
+			
+			// Commit the transaction
+			em.getTransaction().commit();
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
 
 		
 		if(!_responses.isEmpty()){
@@ -0,0 +1,39 @@
+package nz.ac.auckland.concert.service.services;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * JAX-RS filter that gives each request its own persistence context (see
+ * PersistenceManager.getRequestEntityManager()). When the response is ready,
+ * the request's transaction is committed if the response is successful, and
+ * rolled back otherwise, e.g. when a BadRequestException was thrown. The
+ * request's EntityManager is always closed.
+ *
+ * The request scope is kept with the request, rather than only with the
+ * thread, because an asynchronous response is filtered on the thread that
+ * resumes it.
+ *
+ */
+@Provider
+public class PersistenceFilter implements ContainerRequestFilter, ContainerResponseFilter {
+	private static final String REQUEST_SCOPE_PROPERTY = PersistenceFilter.class.getName() + ".scope";
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) {
+		requestContext.setProperty(REQUEST_SCOPE_PROPERTY, PersistenceManager.instance().beginRequest());
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+		PersistenceManager.RequestScope request =
+				(PersistenceManager.RequestScope) requestContext.getProperty(REQUEST_SCOPE_PROPERTY);
+		if(request != null) {
+			requestContext.removeProperty(REQUEST_SCOPE_PROPERTY);
+			PersistenceManager.instance().endRequest(request, responseContext.getStatus() < 400);
+		}
+	}
+}
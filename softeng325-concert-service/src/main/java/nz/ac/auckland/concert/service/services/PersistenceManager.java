@@ -1,9 +1,21 @@
 package nz.ac.auckland.concert.service.services;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zaxxer.hikari.HikariDataSource;
+
 /**
  * Singleton class that manages an EntityManagerFactory. When a
  * PersistenceManager is instantiated, it creates an EntityManagerFactory. An
@@ -12,27 +24,163 @@ import javax.persistence.Persistence;
  * 
  * When a Web service application component (e.g. a resource object) requires a 
  * persistence context, it should call the PersistentManager's 
- * createEntityManager() method to acquire one.
+ * createEntityManager() method to acquire one, and close it when done.
+ * 
+ * Resource methods should instead use the persistence context of the request
+ * being processed, acquired by calling getRequestEntityManager(). It is 
+ * created on first use with a transaction already started, and the 
+ * PersistenceFilter commits the transaction (or rolls it back if the request
+ * failed) and closes it once the response is ready.
+ * 
+ * The EntityManagerFactory obtains its connections from a bounded HikariCP
+ * pool, configured in persistence.xml. The maximum number of connections can
+ * be overridden with the concert.db.pool.size system property, and the pool's
+ * metrics are available from getConnectionPoolMetrics(). Writes are sent in
+ * JDBC batches, whose size can be overridden with the concert.db.batch.size
+ * system property.
+ * 
+ * The database itself is chosen by the StorageProfile selected at start-up.
+ * 
+ * The singleton is created when the class is initialised, so every thread
+ * sees the same, fully constructed PersistenceManager.
  * 
  */
 public class PersistenceManager {
-	private static PersistenceManager _instance = null;
+	public static final String POOL_SIZE_PROPERTY = "concert.db.pool.size";
+	public static final String BATCH_SIZE_PROPERTY = "concert.db.batch.size";
+	
+	private static Logger _logger = LoggerFactory
+			.getLogger(PersistenceManager.class);
+	
+	private static final PersistenceManager _instance = new PersistenceManager();
 	
-	private EntityManagerFactory _entityManagerFactory;
+	private final EntityManagerFactory _entityManagerFactory;
+	
+	private final ConnectionPoolMetrics _connectionPoolMetrics = new ConnectionPoolMetrics();
+	
+	/**
+	 * The request being processed by each thread
+	 */
+	private final ThreadLocal<RequestScope> _requests = new ThreadLocal<RequestScope>();
 	
 	protected PersistenceManager() {
-		_entityManagerFactory = Persistence.createEntityManagerFactory("nz.ac.auckland.concert");
+		StorageProfile profile = StorageProfile.selected();
+		_logger.info("Using storage profile " + profile);
+		
+		Map<String, Object> properties = new HashMap<String, Object>(profile.getProperties());
+		String poolSize = System.getProperty(POOL_SIZE_PROPERTY);
+		if(poolSize != null) {
+			properties.put("hibernate.hikari.maximumPoolSize", poolSize);
+		}
+		String batchSize = System.getProperty(BATCH_SIZE_PROPERTY);
+		if(batchSize != null) {
+			properties.put("hibernate.jdbc.batch_size", batchSize);
+		}
+		_entityManagerFactory = Persistence.createEntityManagerFactory("nz.ac.auckland.concert", properties);
+		
+		// start collecting the metrics of the pool Hibernate has created
+		_entityManagerFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+				.getService(ConnectionProvider.class).unwrap(HikariDataSource.class)
+				.setMetricsTrackerFactory(_connectionPoolMetrics);
 	}
 	
 	public EntityManager createEntityManager() {
 		return _entityManagerFactory.createEntityManager();
 	}
 	
-	public static PersistenceManager instance() {
-		if(_instance == null) {
-			_instance = new PersistenceManager();
+	/**
+	 * Returns the persistence context of the request being processed by the 
+	 * calling thread, creating it and starting a transaction on first use.
+	 */
+	public EntityManager getRequestEntityManager() {
+		RequestScope request = _requests.get();
+		if(request == null) {
+			throw new IllegalStateException("No request is being processed");
+		}
+		if(request._entityManager == null) {
+			request._entityManager = createEntityManager();
+			request._entityManager.getTransaction().begin();
+		}
+		return request._entityManager;
+	}
+	
+	/**
+	 * Number of EntityManagers that are open
+	 */
+	public int getOpenEntityManagerCount() {
+		return EntityManagerCounter.getOpenCount();
+	}
+	
+	/**
+	 * Starts the request scope of the calling thread. A scope the thread 
+	 * still has from an earlier request, which must have failed before its
+	 * response was filtered, is rolled back and closed.
+	 */
+	RequestScope beginRequest() {
+		RequestScope stale = _requests.get();
+		if(stale != null) {
+			endRequest(stale, false);
 		}
+		RequestScope request = new RequestScope();
+		_requests.set(request);
+		return request;
+	}
+	
+	/**
+	 * Ends a request scope, committing or rolling back its transaction if one
+	 * is active, and always closing its EntityManager.
+	 */
+	void endRequest(RequestScope request, boolean commit) {
+		// an asynchronous response may be sent from another request's thread
+		if(_requests.get() == request) {
+			_requests.remove();
+		}
+		
+		EntityManager em = request._entityManager;
+		request._entityManager = null;
+		if(em == null) {
+			return;
+		}
+		try {
+			if(em.getTransaction().isActive()) {
+				if(commit && !em.getTransaction().getRollbackOnly()) {
+					em.getTransaction().commit();
+				} else {
+					em.getTransaction().rollback();
+				}
+			}
+		} finally {
+			if(em.getTransaction().isActive()) {
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+	}
+	
+	/**
+	 * Hibernate's statistics, including second-level and query cache hits
+	 * and misses
+	 */
+	public Statistics getStatistics() {
+		return _entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+	
+	/**
+	 * Metrics of the connection pool
+	 */
+	public ConnectionPoolMetrics getConnectionPoolMetrics() {
+		return _connectionPoolMetrics;
+	}
+	
+	public static PersistenceManager instance() {
 		return _instance;
 	}
+	
+	/**
+	 * Persistence context of a single request
+	 */
+	static class RequestScope {
+		private EntityManager _entityManager;
+	}
 
 }
@@ -0,0 +1,80 @@
+package nz.ac.auckland.concert.service.services;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+import org.hibernate.stat.Statistics;
+
+import nz.ac.auckland.concert.service.inventory.ReservationJournal;
+import nz.ac.auckland.concert.service.inventory.SeatInventory;
+import nz.ac.auckland.concert.service.reservation.ReservationEngine;
+import nz.ac.auckland.concert.service.reservation.ReservationExpiry;
+
+/**
+ * Class to implement a simple REST Web service reporting the Concert Web
+ * service's run-time statistics, as plain text with one "name value" pair
+ * per line.
+ *
+ */
+@Path("/concerts/statistics")
+public class StatisticsResource {
+
+	/**
+	 * Retrieves the current statistics
+	 * 
+	 * @return a Response object containing the statistics.
+	 */
+	@GET
+	@Produces(javax.ws.rs.core.MediaType.TEXT_PLAIN)
+	public Response retrieveStatistics() {
+		StringBuilder statistics = new StringBuilder();
+		
+		int queued = 0;
+		for(int length : ReservationEngine.instance().getQueueLengths()){
+			queued += length;
+		}
+		append(statistics, "reservations.queued", queued);
+		append(statistics, "reservations.pending", SeatInventory.instance().getHeldCount());
+		append(statistics, "reservations.expired", SeatInventory.instance().getExpiredCount());
+		append(statistics, "reservations.swept", ReservationExpiry.instance().getSweptCount());
+		
+		ReservationJournal journal = ReservationJournal.instance();
+		append(statistics, "journal.records", journal.getRecordCount());
+		append(statistics, "journal.commits", journal.getCommitCount());
+		append(statistics, "journal.forces", journal.getForceCount());
+		append(statistics, "journal.snapshots", journal.getSnapshotCount());
+		
+		AuthenticationTokenCache tokens = AuthenticationTokenCache.instance();
+		append(statistics, "tokens.cache.size", tokens.getSize());
+		append(statistics, "tokens.cache.hits", tokens.getHitCount());
+		append(statistics, "tokens.cache.misses", tokens.getMissCount());
+		append(statistics, "tokens.cache.evictions", tokens.getEvictionCount());
+		append(statistics, "entitymanagers.open", PersistenceManager.instance().getOpenEntityManagerCount());
+		
+		ConnectionPoolMetrics pool = PersistenceManager.instance().getConnectionPoolMetrics();
+		append(statistics, "connections.active", pool.getActiveConnections());
+		append(statistics, "connections.idle", pool.getIdleConnections());
+		append(statistics, "connections.total", pool.getTotalConnections());
+		append(statistics, "connections.waiting", pool.getPendingThreads());
+		append(statistics, "connections.acquired", pool.getAcquiredCount());
+		append(statistics, "connections.acquire.mean.us", pool.getMeanAcquireMicros());
+		append(statistics, "connections.acquire.max.us", pool.getMaxAcquireMicros());
+		append(statistics, "connections.timeouts", pool.getTimeoutCount());
+		
+		Statistics persistence = PersistenceManager.instance().getStatistics();
+		append(statistics, "statements.prepared", persistence.getPrepareStatementCount());
+		append(statistics, "entities.loaded", persistence.getEntityLoadCount());
+		append(statistics, "cache.entities.hits", persistence.getSecondLevelCacheHitCount());
+		append(statistics, "cache.entities.misses", persistence.getSecondLevelCacheMissCount());
+		append(statistics, "cache.queries.hits", persistence.getQueryCacheHitCount());
+		append(statistics, "cache.queries.misses", persistence.getQueryCacheMissCount());
+		
+		return Response.ok(statistics.toString()).build();
+	}
+	
+	private void append(StringBuilder statistics, String name, Object value) {
+		statistics.append(name).append(' ').append(value).append('\n');
+	}
+}
@@ -0,0 +1,86 @@
+package nz.ac.auckland.concert.service.services;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Named H2 storage configurations for the persistence unit. A profile is
+ * selected at start-up with the concert.db.profile system property (e.g.
+ * -Dconcert.db.profile=mvstore), and supplies the JDBC URL, the schema
+ * generation action and connection pool settings that suit it. The default is
+ * PAGESTORE, the database the service has always used.
+ *
+ * - MEMORY: an in-memory database, recreated at start-up. Nothing is written
+ *   to disk, which suits tests and benchmarks.
+ * - PAGESTORE: the legacy PageStore in ~/test, with table-level locking,
+ *   recreated at start-up.
+ * - MVSTORE: an MVStore file in ~/concert with multi-version concurrency
+ *   control, so readers don't block writers and writers only lock rows. The
+ *   schema and data are kept between runs. For production.
+ * - SERVER: an MVStore database served by an H2 TCP server, so that several
+ *   nodes can share it. The server's address is given by the
+ *   concert.db.server system property (localhost:9092 by default). Each node
+ *   only serialises its own reservations, so they are always made in seat
+ *   hold mode, where the database settles conflicts between nodes.
+ *
+ * Profiles that keep their data only create missing schema objects (Hibernate
+ * logs and skips the DDL for existing ones), and aren't reset at start-up
+ * unless the concert.startup.reset system property is true. The seed data in db-init.sql is
+ * merged rather than inserted, so it can be loaded into an existing database.
+ *
+ */
+public enum StorageProfile {
+	MEMORY("jdbc:h2:mem:concert;DB_CLOSE_DELAY=-1;MVCC=TRUE;LOCK_TIMEOUT=5000",
+			"drop-and-create", 10, 2),
+	PAGESTORE("jdbc:h2:~/test;MV_STORE=FALSE;LOCK_TIMEOUT=5000",
+			"drop-and-create", 10, 2),
+	MVSTORE("jdbc:h2:~/concert;MV_STORE=TRUE;MVCC=TRUE;LOCK_TIMEOUT=5000;CACHE_SIZE=65536",
+			"create", 20, 5),
+	SERVER("jdbc:h2:tcp://" + System.getProperty("concert.db.server", "localhost:9092")
+			+ "/~/concert;MV_STORE=TRUE;MVCC=TRUE;LOCK_TIMEOUT=5000;CACHE_SIZE=65536",
+			"create", 20, 5);
+
+	public static final String PROFILE_PROPERTY = "concert.db.profile";
+
+	private final Map<String, Object> _properties;
+	private final boolean _durable;
+
+	private StorageProfile(String url, String schemaAction, int maximumPoolSize, int minimumIdle) {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("javax.persistence.jdbc.url", url);
+		properties.put("javax.persistence.schema-generation.database.action", schemaAction);
+		properties.put("hibernate.hikari.maximumPoolSize", Integer.toString(maximumPoolSize));
+		properties.put("hibernate.hikari.minimumIdle", Integer.toString(minimumIdle));
+		_properties = Collections.unmodifiableMap(properties);
+		_durable = schemaAction.equals("create");
+	}
+
+	/**
+	 * Persistence unit properties that override those in persistence.xml
+	 */
+	public Map<String, Object> getProperties() {
+		return _properties;
+	}
+
+	/**
+	 * Whether the database keeps its data between runs
+	 */
+	public boolean isDurable() {
+		return _durable;
+	}
+
+	/**
+	 * Whether the database may be shared with other nodes
+	 */
+	public boolean isShared() {
+		return this == SERVER;
+	}
+
+	/**
+	 * Returns the profile selected by the concert.db.profile system property.
+	 */
+	public static StorageProfile selected() {
+		return valueOf(System.getProperty(PROFILE_PROPERTY, PAGESTORE.name()).toUpperCase());
+	}
+}
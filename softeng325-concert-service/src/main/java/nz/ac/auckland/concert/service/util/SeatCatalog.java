@@ -0,0 +1,48 @@
+package nz.ac.auckland.concert.service.util;
+
+import nz.ac.auckland.concert.common.dto.SeatDTO;
+import nz.ac.auckland.concert.common.types.SeatRow;
+import nz.ac.auckland.concert.common.util.TheatreLayout;
+import nz.ac.auckland.concert.service.domain.Seat;
+
+/**
+ * Utility class holding a single shared Seat instance for every seat at the
+ * concert venue, indexed by the seat ordinals defined by TheatreLayout.
+ *
+ */
+public class SeatCatalog {
+
+	private static Seat[] _seats;
+
+	static {
+		_seats = new Seat[TheatreLayout.getNumberOfSeats()];
+		for(int i = 0; i < _seats.length; i++) {
+			SeatDTO seat = TheatreLayout.getSeat(i);
+			_seats[i] = new Seat(seat.getRow(), seat.getNumber());
+		}
+	}
+
+	/**
+	 * Returns the shared Seat instance with the specified ordinal.
+	 * 
+	 */
+	public static Seat getSeat(int ordinal) {
+		return _seats[ordinal];
+	}
+
+	/**
+	 * Returns the shared Seat instance for a seat in a row.
+	 * 
+	 */
+	public static Seat getSeat(SeatRow row, int number) {
+		return _seats[TheatreLayout.getOrdinal(row, number)];
+	}
+
+	/**
+	 * Returns the ordinal of a seat.
+	 * 
+	 */
+	public static int getOrdinal(Seat seat) {
+		return TheatreLayout.getOrdinal(seat.getRow(), seat.getNumber().intValue());
+	}
+}
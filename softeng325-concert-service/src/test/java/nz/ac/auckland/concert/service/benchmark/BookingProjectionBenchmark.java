@@ -0,0 +1,200 @@
+package nz.ac.auckland.concert.service.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import com.sun.management.ThreadMXBean;
+
+import nz.ac.auckland.concert.common.dto.BookingDTO;
+import nz.ac.auckland.concert.common.dto.SeatDTO;
+import nz.ac.auckland.concert.common.types.PriceBand;
+import nz.ac.auckland.concert.common.util.TheatreLayout;
+import nz.ac.auckland.concert.service.domain.Booking;
+import nz.ac.auckland.concert.service.domain.Concert;
+import nz.ac.auckland.concert.service.domain.Seat;
+import nz.ac.auckland.concert.service.domain.User;
+import nz.ac.auckland.concert.service.services.DomainMapper;
+import nz.ac.auckland.concert.service.services.StorageProfile;
+import nz.ac.auckland.concert.service.util.SeatCatalog;
+
+/**
+ * Compares the two ways of retrieving a user's bookings: loading Booking
+ * entities and converting them to DTOs as DomainMapper used to, and selecting
+ * DomainMapper.BOOKING_PROJECTION rows as ConcertResource does. Prints the
+ * mean and p99 latency of each, and the bytes allocated per request.
+ *
+ * Each request runs in its own EntityManager and transaction, like a request
+ * to the service, so the entity path pays for hydration, the persistence
+ * context and dirty checking at commit.
+ *
+ * Usage: BookingProjectionBenchmark with the system properties
+ * benchmark.bookings (of the user, default 20), benchmark.seats (per booking,
+ * default 4) and benchmark.requests (per strategy, default 5000). The storage
+ * profile is selected as it is for the service.
+ *
+ */
+public class BookingProjectionBenchmark {
+	private static final int BOOKINGS = Integer.getInteger("benchmark.bookings", 20);
+	private static final int SEATS = Integer.getInteger("benchmark.seats", 4);
+	private static final int REQUESTS = Integer.getInteger("benchmark.requests", 5000);
+
+	private static final Long CONCERT_ID = 1L;
+	private static final LocalDateTime DATE = LocalDateTime.of(2017, 2, 24, 17, 0);
+	private static final String USERNAME = "benchmark-bookings";
+
+	private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		EntityManagerFactory factory = Persistence.createEntityManagerFactory("nz.ac.auckland.concert",
+				StorageProfile.selected().getProperties());
+		try {
+			populate(factory);
+
+			Function<EntityManager, Set<BookingDTO>> entities = em -> entitiesToDTO(
+					em.createQuery("select b from Booking b where b._user._username = :username", Booking.class)
+							.setParameter("username", USERNAME)
+							.getResultList());
+			Function<EntityManager, Set<BookingDTO>> projection = em -> rowsToDTO(
+					em.createQuery(DomainMapper.BOOKING_PROJECTION + "where b._user._username = :username",
+							Object[].class)
+							.setParameter("username", USERNAME)
+							.getResultList());
+
+			// Both strategies must produce the same bookings.
+			if (!request(factory, entities).equals(request(factory, projection))) {
+				throw new IllegalStateException("The strategies retrieved different bookings");
+			}
+
+			// Warm up both before measuring either
+			run(factory, entities);
+			run(factory, projection);
+
+			System.out.println(String.format("%-10s %10s %10s %10s", "strategy", "mean us", "p99 us", "KB/request"));
+			print("entities", run(factory, entities));
+			print("projection", run(factory, projection));
+
+			clean(factory);
+		} finally {
+			factory.close();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Makes REQUESTS requests with a strategy, returning the time each took
+	 * followed by the total bytes allocated.
+	 */
+	private static long[] run(EntityManagerFactory factory, Function<EntityManager, Set<BookingDTO>> strategy) {
+		long[] results = new long[REQUESTS + 1];
+		long threadId = Thread.currentThread().getId();
+		long allocated = THREADS.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < REQUESTS; i++) {
+			long start = System.nanoTime();
+			request(factory, strategy);
+			results[i] = System.nanoTime() - start;
+		}
+		results[REQUESTS] = THREADS.getThreadAllocatedBytes(threadId) - allocated;
+		return results;
+	}
+
+	private static Set<BookingDTO> request(EntityManagerFactory factory,
+			Function<EntityManager, Set<BookingDTO>> strategy) {
+		EntityManager em = factory.createEntityManager();
+		em.getTransaction().begin();
+		Set<BookingDTO> bookings = strategy.apply(em);
+		em.getTransaction().commit();
+		em.close();
+		if (bookings.size() != BOOKINGS) {
+			throw new IllegalStateException("Retrieved " + bookings.size() + " bookings");
+		}
+		return bookings;
+	}
+
+	private static Set<BookingDTO> entitiesToDTO(List<Booking> bookings) {
+		Set<BookingDTO> bookingDTOs = new HashSet<BookingDTO>();
+		for (Booking booking : bookings) {
+			Set<SeatDTO> seats = new HashSet<SeatDTO>();
+			for (Seat seat : booking.getSeats()) {
+				seats.add(TheatreLayout.getSeat(seat.getRow(), seat.getNumber().intValue()));
+			}
+			bookingDTOs.add(new BookingDTO(booking.getConcertId(), booking.getConcertTitle(),
+					booking.getDateTime(), seats, booking.getPriceBand()));
+		}
+		return bookingDTOs;
+	}
+
+	private static Set<BookingDTO> rowsToDTO(List<Object[]> rows) {
+		Set<BookingDTO> bookingDTOs = new HashSet<BookingDTO>();
+		for (Object[] row : rows) {
+			bookingDTOs.add(DomainMapper.bookingRowToDTO(row));
+		}
+		return bookingDTOs;
+	}
+
+	private static void print(String strategy, long[] results) {
+		long[] timings = Arrays.copyOf(results, REQUESTS);
+		long total = 0;
+		for (long timing : timings) {
+			total += timing;
+		}
+		Arrays.sort(timings);
+		System.out.println(String.format("%-10s %10.1f %10.1f %10.1f", strategy,
+				micros(total / REQUESTS),
+				micros(timings[(int) (REQUESTS * 0.99)]),
+				results[REQUESTS] / (double) REQUESTS / 1024));
+	}
+
+	/**
+	 * Creates the benchmark's user, with BOOKINGS confirmed bookings.
+	 */
+	private static void populate(EntityManagerFactory factory) {
+		clean(factory);
+
+		EntityManager em = factory.createEntityManager();
+		em.getTransaction().begin();
+		User user = new User(USERNAME, "benchmark");
+		em.persist(user);
+		Concert concert = em.find(Concert.class, CONCERT_ID);
+		for (int i = 0; i < BOOKINGS; i++) {
+			Set<Seat> seats = new HashSet<Seat>();
+			for (int j = 0; j < SEATS; j++) {
+				seats.add(SeatCatalog.getSeat((i * SEATS + j) % TheatreLayout.getNumberOfSeats()));
+			}
+			Booking booking = new Booking(concert, DATE, seats, PriceBand.PriceBandA, user,
+					LocalDateTime.now());
+			booking.setConfirmed();
+			em.persist(booking);
+		}
+		em.getTransaction().commit();
+		em.close();
+	}
+
+	/**
+	 * Removes the benchmark's bookings and user, for profiles that keep their
+	 * data.
+	 */
+	private static void clean(EntityManagerFactory factory) {
+		EntityManager em = factory.createEntityManager();
+		em.getTransaction().begin();
+		em.createQuery("delete from Booking b where b._user._username = :username")
+				.setParameter("username", USERNAME).executeUpdate();
+		em.createQuery("delete from User u where u._username = :username")
+				.setParameter("username", USERNAME).executeUpdate();
+		em.getTransaction().commit();
+		em.close();
+	}
+
+	private static double micros(long nanos) {
+		return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+	}
+}
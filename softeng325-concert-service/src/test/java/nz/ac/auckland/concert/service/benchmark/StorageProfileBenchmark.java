@@ -0,0 +1,253 @@
+package nz.ac.auckland.concert.service.benchmark;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.ws.rs.BadRequestException;
+
+import org.h2.tools.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nz.ac.auckland.concert.common.dto.CreditCardDTO;
+import nz.ac.auckland.concert.common.dto.ReservationDTO;
+import nz.ac.auckland.concert.common.dto.ReservationRequestDTO;
+import nz.ac.auckland.concert.common.message.Messages;
+import nz.ac.auckland.concert.common.types.PriceBand;
+import nz.ac.auckland.concert.service.domain.AuthenticationToken;
+import nz.ac.auckland.concert.service.domain.Concert;
+import nz.ac.auckland.concert.service.domain.CreditCard;
+import nz.ac.auckland.concert.service.domain.User;
+import nz.ac.auckland.concert.service.inventory.PerformanceKey;
+import nz.ac.auckland.concert.service.inventory.SeatInventory;
+import nz.ac.auckland.concert.service.reservation.ReservationEngine;
+import nz.ac.auckland.concert.service.services.AuthenticationTokenCache;
+import nz.ac.auckland.concert.service.services.ConcertApplication;
+import nz.ac.auckland.concert.service.services.ConcertResource;
+import nz.ac.auckland.concert.service.services.PersistenceManager;
+import nz.ac.auckland.concert.service.services.StorageProfile;
+
+/**
+ * Runs the reserve/confirm workload against the selected H2 storage profile
+ * and logs its throughput and latency, so that a profile can be chosen from
+ * measurements.
+ *
+ * The service is started in this JVM, and each of a number of threads
+ * repeatedly reserves seats with ConcertResource.reserveSeats() and confirms
+ * them with ConcertResource.confirmReservation(), as a user of its own. The
+ * reservations therefore go through the seat inventory, the ReservationEngine
+ * partitions (or SeatHolds in seat hold mode) and the journal, as they do in
+ * the service. All threads book the same performance, cycling through its
+ * price bands, so they contend for the same seats and rows; when it is full
+ * they move on to the next one.
+ *
+ * Usage: StorageProfileBenchmark with the system properties
+ * concert.db.profile (the profile to run, selected as it is for the
+ * service), benchmark.threads (default 8), benchmark.reservations (per
+ * thread, default 200) and benchmark.seats (per reservation, default 2).
+ * Seat hold mode is selected with concert.reservation.seatholds, as for the
+ * service. The SERVER profile is run against an H2 TCP server started in
+ * this JVM.
+ *
+ */
+public class StorageProfileBenchmark {
+	private static final int THREADS = Integer.getInteger("benchmark.threads", 8);
+	private static final int RESERVATIONS = Integer.getInteger("benchmark.reservations", 200);
+	private static final int SEATS = Integer.getInteger("benchmark.seats", 2);
+
+	private static Logger _logger = LoggerFactory
+			.getLogger(StorageProfileBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+		StorageProfile profile = StorageProfile.selected();
+		Server server = null;
+		if (profile == StorageProfile.SERVER) {
+			server = Server.createTcpServer("-tcpPort", "9092").start();
+		}
+		try {
+			run(profile);
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+		}
+	}
+
+	private static void run(StorageProfile profile) throws Exception {
+		// start the service as its servlet container would, then remove what an
+		// earlier run left in a profile that keeps its data
+		new ConcertApplication();
+		clean();
+
+		List<String> tokens = new ArrayList<String>();
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		try {
+			em.getTransaction().begin();
+			for (int i = 0; i < THREADS; i++) {
+				User user = new User(username(i), "benchmark");
+				user.addCreditCard(new CreditCard(CreditCardDTO.Type.Visa, username(i), "4929-1500-0055-9544",
+						LocalDate.now().plusYears(1)));
+				em.persist(user);
+				AuthenticationToken token = new AuthenticationToken(user);
+				em.persist(token);
+				tokens.add(token.getValue());
+			}
+			em.getTransaction().commit();
+		} finally {
+			em.close();
+		}
+
+		List<PerformanceKey> performances = performances();
+		AtomicInteger performance = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<long[][]>> results = new ArrayList<Future<long[][]>>();
+		long start = System.nanoTime();
+		for (int i = 0; i < THREADS; i++) {
+			results.add(executor.submit(workload(tokens.get(i), i, performances, performance)));
+		}
+
+		List<Long> totals = new ArrayList<Long>();
+		long reserveNanos = 0;
+		long confirmNanos = 0;
+		try {
+			for (Future<long[][]> result : results) {
+				long[][] timings = result.get();
+				for (int i = 0; i < timings[0].length; i++) {
+					reserveNanos += timings[0][i];
+					confirmNanos += timings[1][i];
+					totals.add(timings[0][i] + timings[1][i]);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		Collections.sort(totals);
+		_logger.info(String.format("%-10s %10s %10s %10s %10s %10s %10s",
+				"profile", "seatholds", "ops/s", "p50 ms", "p99 ms", "reserve ms", "confirm ms"));
+		_logger.info(String.format("%-10s %10s %10.0f %10.2f %10.2f %10.2f %10.2f", profile,
+				ReservationEngine.isSeatHoldMode(),
+				totals.size() / (elapsed / 1e9),
+				millis(totals.get(totals.size() / 2)),
+				millis(totals.get((int) (totals.size() * 0.99))),
+				millis(reserveNanos / totals.size()),
+				millis(confirmNanos / totals.size())));
+
+		clean();
+	}
+
+	/**
+	 * Reserves and confirms bookings as one user, returning the time taken by
+	 * each reservation and each confirmation.
+	 */
+	private static Callable<long[][]> workload(String token, int thread, List<PerformanceKey> performances,
+			AtomicInteger performance) {
+		return () -> {
+			ConcertResource resource = new ConcertResource();
+			long[][] timings = new long[2][RESERVATIONS];
+			for (int i = 0; i < RESERVATIONS; i++) {
+				PriceBand priceBand = PriceBand.values()[(thread + i) % PriceBand.values().length];
+
+				ReservationDTO reservation = null;
+				long start = 0;
+				while (reservation == null) {
+					int current = performance.get();
+					if (current == performances.size()) {
+						throw new IllegalStateException("Every performance is booked out");
+					}
+					PerformanceKey key = performances.get(current);
+					start = System.nanoTime();
+					try {
+						reservation = (ReservationDTO) resource.reserveSeats(new ReservationRequestDTO(SEATS, priceBand,
+								key.getConcertId(), key.getDate()), token).getEntity();
+					} catch (BadRequestException e) {
+						if (!Messages.INSUFFICIENT_SEATS_AVAILABLE_FOR_RESERVATION.equals(e.getResponse().getEntity())) {
+							throw e;
+						}
+						// the price band is full, so every thread moves on to the next performance
+						performance.compareAndSet(current, current + 1);
+					}
+				}
+				timings[0][i] = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				resource.confirmReservation(reservation, token);
+				timings[1][i] = System.nanoTime() - start;
+			}
+			return timings;
+		};
+	}
+
+	/**
+	 * Returns every concert's performances, in order.
+	 */
+	private static List<PerformanceKey> performances() {
+		List<PerformanceKey> performances = new ArrayList<PerformanceKey>();
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		try {
+			for (Concert concert : em.createQuery("select c from Concert c order by c._id", Concert.class)
+					.getResultList()) {
+				List<LocalDateTime> dates = new ArrayList<LocalDateTime>(concert.getDates());
+				Collections.sort(dates);
+				for (LocalDateTime date : dates) {
+					performances.add(new PerformanceKey(concert.getId(), date));
+				}
+			}
+		} finally {
+			em.close();
+		}
+		return performances;
+	}
+
+	/**
+	 * Removes the benchmark's users and everything they made, and rebuilds
+	 * the seat inventory from what is left.
+	 */
+	private static void clean() {
+		EntityManager em = PersistenceManager.instance().createEntityManager();
+		try {
+			em.getTransaction().begin();
+			em.createQuery("delete from SeatHold h where h._booking._id in "
+					+ "(select b._id from Booking b where b._user._username like 'benchmark-%')").executeUpdate();
+			em.createQuery("delete from Booking b where b._user in "
+					+ "(select u from User u where u._username like 'benchmark-%')").executeUpdate();
+			em.createQuery("delete from AuthenticationToken t where t._user in "
+					+ "(select u from User u where u._username like 'benchmark-%')").executeUpdate();
+			// removed one at a time, so that their credit cards are removed too
+			for (User user : em.createQuery("select u from User u where u._username like 'benchmark-%'", User.class)
+					.getResultList()) {
+				em.remove(user);
+			}
+			em.getTransaction().commit();
+		} finally {
+			if (em.getTransaction().isActive()) {
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+
+		// bulk deletes bypass the inventory and the token cache
+		SeatInventory.instance().clear();
+		AuthenticationTokenCache.instance().clear();
+	}
+
+	private static String username(int thread) {
+		return "benchmark-" + thread;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}